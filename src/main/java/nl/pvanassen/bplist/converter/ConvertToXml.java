@@ -12,6 +12,7 @@ package nl.pvanassen.bplist.converter;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import javax.xml.datatype.*;
 
@@ -106,7 +107,10 @@ import nl.pvanassen.bplist.parser.*;
 public class ConvertToXml {
     /** Factory for generating XML data types. */
     private final static DatatypeFactory DATATYPE_FACTORY;
+    /** Arrays and dicts with more entries are split up by parallel conversion. */
+    private static final int PARALLEL_THRESHOLD = 256;
     private final ElementParser parser = new ElementParser();
+    private final int parallelThreshold;
     
     static {
         try {
@@ -116,6 +120,22 @@ public class ConvertToXml {
         }
     }
     
+    /**
+     * Creates a converter splitting up arrays and dicts with more than
+     * {@value #PARALLEL_THRESHOLD} entries in parallel conversion
+     */
+    public ConvertToXml() {
+        this(PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * @param parallelThreshold Arrays and dicts with more entries are split up
+     *            in parallel conversion
+     */
+    public ConvertToXml(int parallelThreshold) {
+        this.parallelThreshold = Math.max(1, parallelThreshold);
+    }
+
     /**
      * Parses a binary PList file and turns it into a XMLElement. The XMLElement
      * is equivalent with a XML PList file parsed using NanoXML.
@@ -129,7 +149,25 @@ public class ConvertToXml {
         XMLElement root = new XMLElement(new HashMap<String, char[]>(), false, false);
         root.setName("plist");
         root.setAttribute("version", "1.0");
-        convertObjectTableToXML(root, parser.parseObjectTable(file).get(0));
+        convertObjectTableToXML(root, parser.parseDocument(file).getTopObject());
+        return root;
+    }
+
+    /**
+     * Turns a random access bplist into a XMLElement, starting at the top
+     * level object named in the trailer. The XMLElement is equivalent with a
+     * XML PList file parsed using NanoXML.
+     * 
+     * @param document Opened bplist
+     * @return Returns the parsed XMLElement.
+     * @throws IOException If the document can not be decoded
+     */
+    public XMLElement convertToXml(BPListDocument document) throws IOException {
+        // Convert the object table to XML and return it
+        XMLElement root = new XMLElement(new HashMap<String, char[]>(), false, false);
+        root.setName("plist");
+        root.setAttribute("version", "1.0");
+        convertObjectTableToXML(root, document.getTopObject());
         return root;
     }
     
@@ -137,7 +175,8 @@ public class ConvertToXml {
      * Parses a binary PList file and turns it into a XMLElement. The XMLElement
      * is equivalent with a XML PList file parsed using NanoXML.
      * 
-     * @param list Parsed tree
+     * @param list Parsed tree, converted from the top level object of a
+     *            {@link BPListObjectTable}, from the first object otherwise
      * @return Returns the parsed XMLElement.
      * @throws IOException If the file is not found
      */
@@ -146,7 +185,38 @@ public class ConvertToXml {
         XMLElement root = new XMLElement(new HashMap<String, char[]>(), false, false);
         root.setName("plist");
         root.setAttribute("version", "1.0");
-        convertObjectTableToXML(root, list.get(0));
+        convertObjectTableToXML(root, topObject(list));
+        return root;
+    }
+    
+    /**
+     * Parses a binary PList file and turns it into a XMLElement on a fork/join
+     * pool. Arrays and dicts with more entries than the threshold are split into ranges that are converted concurrently and
+     * stitched back in their original order, smaller ones are converted
+     * sequentially. The XMLElement is equal to the one from
+     * {@link #convertToXml(List)}.
+     * 
+     * @param list Parsed tree, safe for concurrent reads. Converted from the
+     *            top level object of a {@link BPListObjectTable}, from the
+     *            first object otherwise.
+     * @param pool Pool to convert on
+     * @return Returns the parsed XMLElement.
+     * @throws IOException If the file is not found
+     */
+    public XMLElement convertToXml(List<BPListElement<?>> list, ForkJoinPool pool) throws IOException {
+        // Convert the object table to XML and return it
+        final XMLElement root = new XMLElement(new HashMap<String, char[]>(), false, false);
+        root.setName("plist");
+        root.setAttribute("version", "1.0");
+        final BPListElement<?> object = topObject(list);
+        root.addChild(pool.invoke(new RecursiveTask<XMLElement>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected XMLElement compute() {
+                return convertObject(root, object, true);
+            }
+        }));
         return root;
     }
     
@@ -154,22 +224,45 @@ public class ConvertToXml {
      * Converts the object table in the binary PList into an XMLElement.
      */
     private void convertObjectTableToXML(XMLElement parent, BPListElement<?> object) {
+        parent.addChild(convertObject(parent, object, false));
+    }
+
+    /**
+     * Converts a single object into an XMLElement, children included.
+     * Parallel conversion only happens when called from a fork/join pool.
+     */
+    private XMLElement convertObject(XMLElement parent, BPListElement<?> object, boolean parallel) {
         XMLElement elem = parent.createAnotherElement();
-        if (object.getType() == BPListType.SHORT_DICT || object.getType() == BPListType.BYTE_DICT) {
+        if (object.getType().isDict()) {
             Map<String,BPListElement<?>> dictionary = (Map<String,BPListElement<?>>)object.getValue();
             elem.setName("dict");
+            if (parallel && dictionary.size() > parallelThreshold) {
+                String[] keys = new String[dictionary.size()];
+                BPListElement<?>[] values = new BPListElement<?>[dictionary.size()];
+                int index = 0;
+                for (Map.Entry<String,BPListElement<?>> entry : dictionary.entrySet()) {
+                    keys[index] = entry.getKey();
+                    values[index++] = entry.getValue();
+                }
+                addChildren(parent, elem, keys, values);
+                return elem;
+            }
             for (Map.Entry<String,BPListElement<?>> entry : dictionary.entrySet()) {
                 XMLElement key = parent.createAnotherElement();
                 key.setName("key");
                 key.setContent(entry.getKey());
                 elem.addChild(key);
-                convertObjectTableToXML(elem, entry.getValue());
+                elem.addChild(convertObject(elem, entry.getValue(), parallel));
             }
-        } else if (object.getType() == BPListType.SHORT_ARRAY || object.getType() == BPListType.BYTE_ARRAY) {
+        } else if (object.getType().isArray()) {
             List<BPListElement<?>> elements = (List<BPListElement<?>>)object.getValue();
             elem.setName("array");
+            if (parallel && elements.size() > parallelThreshold) {
+                addChildren(parent, elem, null, elements.toArray(new BPListElement<?>[elements.size()]));
+                return elem;
+            }
             for (BPListElement<?> element : elements) {
-                convertObjectTableToXML(elem, element);
+                elem.addChild(convertObject(elem, element, parallel));
             }
         } else if (object.getType() == BPListType.ASCII_STRING || object.getType() == BPListType.UNICODE_STRING) {
             elem.setName("string");
@@ -201,11 +294,77 @@ public class ConvertToXml {
             elem.setName("unsupported");
             elem.setContent(object.toString());
         }
-        parent.addChild(elem);
+        return elem;
+    }
+
+    /**
+     * Converts the entries of a large array or dict concurrently and adds
+     * them to the element in their original order
+     */
+    private void addChildren(XMLElement parent, XMLElement elem, String[] keys, BPListElement<?>[] values) {
+        int stride = (keys == null) ? 1 : 2;
+        XMLElement[] children = new XMLElement[values.length * stride];
+        new ConvertRange(parent, elem, keys, values, children, 0, values.length).invoke();
+        for (XMLElement child : children) {
+            elem.addChild(child);
+        }
+    }
+
+    /**
+     * Converts a range of entries, splitting it in halves until it is below
+     * the threshold. Every entry is written to its own slot, so no stitching
+     * is needed afterwards.
+     */
+    private class ConvertRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final XMLElement parent;
+        private final XMLElement elem;
+        private final String[] keys;
+        private final BPListElement<?>[] values;
+        private final XMLElement[] children;
+        private final int from;
+        private final int to;
+
+        private ConvertRange(XMLElement parent, XMLElement elem, String[] keys, BPListElement<?>[] values, XMLElement[] children, int from, int to) {
+            this.parent = parent;
+            this.elem = elem;
+            this.keys = keys;
+            this.values = values;
+            this.children = children;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > parallelThreshold) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ConvertRange(parent, elem, keys, values, children, from, middle),
+                        new ConvertRange(parent, elem, keys, values, children, middle, to));
+                return;
+            }
+            for (int index = from; index < to; index++) {
+                if (keys == null) {
+                    children[index] = convertObject(elem, values[index], true);
+                } else {
+                    XMLElement key = parent.createAnotherElement();
+                    key.setName("key");
+                    key.setContent(keys[index]);
+                    children[2 * index] = key;
+                    children[2 * index + 1] = convertObject(elem, values[index], true);
+                }
+            }
+        }
     }
 
+    /**
+     * Top level object named in the trailer, for lists that know it
+     */
+    static BPListElement<?> topObject(List<BPListElement<?>> list) {
+        return list.get((list instanceof BPListObjectTable) ? ((BPListObjectTable) list).getTopObjectRef() : 0);
+    }
 
-    private static XMLGregorianCalendar fromDate(Date date) {
+    static XMLGregorianCalendar fromDate(Date date) {
         GregorianCalendar gc = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
         gc.setTime(date);
         XMLGregorianCalendar xmlgc = DATATYPE_FACTORY.newXMLGregorianCalendar(gc);
@@ -0,0 +1,268 @@
+package nl.pvanassen.bplist.converter;
+
+import java.io.*;
+import java.util.*;
+
+import nl.pvanassen.bplist.ext.base64.Base64;
+import nl.pvanassen.bplist.parser.*;
+
+/**
+ * Converts a bplist to XML plist text without building an
+ * {@link nl.pvanassen.bplist.ext.nanoxml.XMLElement} tree. The document is
+ * walked with a {@link BPListCursor}, or a parsed tree is walked as is, and
+ * the XML is written while walking. Text goes out in chunks of a few KB, the
+ * writer or stream is flushed after every chunk.
+ * <p>
+ * The text is the same as {@link ConvertToXml} gives for the root element.
+ * Dict entries come in the same order, the order of a {@link HashMap} of the
+ * keys, which is the only thing kept in memory per dict. The null object has
+ * no XML form, it is left out together with its key.
+ *
+ * @author Paul van Assen
+ */
+public class StreamingXmlConverter {
+    private final ElementParser parser = new ElementParser();
+
+    /**
+     * Converts a memory mapped bplist file
+     *
+     * @param file
+     *            bplist to convert
+     * @param out
+     *            Stream to write ASCII text to, flushed but not closed
+     * @throws IOException
+     *             In case of an error reading or writing
+     */
+    public void convert(File file, OutputStream out) throws IOException {
+        convert(parser.parseDocument(file), out);
+    }
+
+    /**
+     * Converts a random access bplist, starting at the top level object named
+     * in the trailer
+     *
+     * @param document
+     *            Opened bplist
+     * @param out
+     *            Stream to write ASCII text to, flushed but not closed
+     * @throws IOException
+     *             In case of an error reading or writing
+     */
+    public void convert(BPListDocument document, OutputStream out) throws IOException {
+        convert(document.cursor(), new XmlOutput(out, true));
+    }
+
+    /**
+     * Converts a random access bplist, starting at the top level object named
+     * in the trailer
+     *
+     * @param document
+     *            Opened bplist
+     * @param writer
+     *            Writer to write to, flushed but not closed
+     * @throws IOException
+     *             In case of an error reading or writing
+     */
+    public void convert(BPListDocument document, Writer writer) throws IOException {
+        convert(document.cursor(), new XmlOutput(writer, true));
+    }
+
+    /**
+     * Converts a parsed tree, starting at the top level object like
+     * {@link ConvertToXml#convertToXml(List)}
+     *
+     * @param list
+     *            Parsed tree, converted from the top level object of a
+     *            {@link BPListObjectTable}, from the first object otherwise
+     * @param out
+     *            Stream to write ASCII text to, flushed but not closed
+     * @throws IOException
+     *             In case of an error writing
+     */
+    public void convert(List<BPListElement<?>> list, OutputStream out) throws IOException {
+        convert(ConvertToXml.topObject(list), new XmlOutput(out, true));
+    }
+
+    /**
+     * Converts a parsed tree, starting at the top level object like
+     * {@link ConvertToXml#convertToXml(List)}
+     *
+     * @param list
+     *            Parsed tree, converted from the top level object of a
+     *            {@link BPListObjectTable}, from the first object otherwise
+     * @param writer
+     *            Writer to write to, flushed but not closed
+     * @throws IOException
+     *             In case of an error writing
+     */
+    public void convert(List<BPListElement<?>> list, Writer writer) throws IOException {
+        convert(ConvertToXml.topObject(list), new XmlOutput(writer, true));
+    }
+
+    private void convert(BPListCursor cursor, XmlOutput out) throws IOException {
+        out.write("<plist version=\"1.0\">");
+        writeObject(cursor, out);
+        out.write("</plist>");
+        out.flush();
+    }
+
+    private void convert(BPListElement<?> top, XmlOutput out) throws IOException {
+        out.write("<plist version=\"1.0\">");
+        writeObject(top, out);
+        out.write("</plist>");
+        out.flush();
+    }
+
+    private void writeObject(BPListCursor cursor, XmlOutput out) throws IOException {
+        BPListType type = cursor.type();
+        if (type == null) {
+            return;
+        }
+        if (type.isDict()) {
+            int count = cursor.size();
+            Map<String, Integer> entries = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                cursor.moveToKey(i);
+                entries.put(cursor.stringValue(), i);
+                cursor.moveToParent();
+            }
+            out.write("<dict");
+            boolean empty = true;
+            for (Map.Entry<String, Integer> entry : entries.entrySet()) {
+                cursor.moveToChild(entry.getValue());
+                if (!cursor.isNull()) {
+                    empty = startContainer(out, empty);
+                    out.writeElement("key", entry.getKey());
+                    writeObject(cursor, out);
+                }
+                cursor.moveToParent();
+            }
+            endContainer(out, "dict", empty);
+        } else if (type.isArray()) {
+            int count = cursor.size();
+            out.write("<array");
+            boolean empty = true;
+            for (int i = 0; i < count; i++) {
+                cursor.moveToChild(i);
+                if (!cursor.isNull()) {
+                    empty = startContainer(out, empty);
+                    writeObject(cursor, out);
+                }
+                cursor.moveToParent();
+            }
+            endContainer(out, "array", empty);
+        } else {
+            switch (type) {
+                case ASCII_STRING:
+                case UNICODE_STRING:
+                    out.writeElement("string", cursor.stringValue());
+                    break;
+                case LONG:
+                    out.writeElement("integer", Long.toString(cursor.longValue()));
+                    break;
+                case FLOAT:
+                    out.writeElement("real", Float.toString((float) cursor.doubleValue()));
+                    break;
+                case DOUBLE:
+                    out.writeElement("real", Double.toString(cursor.doubleValue()));
+                    break;
+                case BOOLEAN:
+                    out.writeElement("boolean", Boolean.toString(cursor.booleanValue()));
+                    break;
+                case DATA:
+                    out.writeElement("data", Base64.encodeBytes(cursor.dataValue(), Base64.DONT_BREAK_LINES));
+                    break;
+                case DATE:
+                    out.writeElement("date", ConvertToXml.fromDate(cursor.dateValue()).toXMLFormat() + "Z");
+                    break;
+                default:
+                    out.writeElement("UID", Integer.toString(cursor.uidValue()));
+                    break;
+            }
+        }
+    }
+
+    private void writeObject(BPListElement<?> object, XmlOutput out) throws IOException {
+        if (object == null) {
+            return;
+        }
+        BPListType type = object.getType();
+        if (type.isDict()) {
+            BPLDict dict = (BPLDict) object;
+            int count = dict.size();
+            Map<String, Integer> entries = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                entries.put(dict.getKey(i), i);
+            }
+            out.write("<dict");
+            boolean empty = true;
+            for (Map.Entry<String, Integer> entry : entries.entrySet()) {
+                BPListElement<?> value = dict.getValue(entry.getValue());
+                if (value != null) {
+                    empty = startContainer(out, empty);
+                    out.writeElement("key", entry.getKey());
+                    writeObject(value, out);
+                }
+            }
+            endContainer(out, "dict", empty);
+        } else if (type.isArray()) {
+            BPLArray array = (BPLArray) object;
+            int count = array.size();
+            out.write("<array");
+            boolean empty = true;
+            for (int i = 0; i < count; i++) {
+                BPListElement<?> element = array.get(i);
+                if (element != null) {
+                    empty = startContainer(out, empty);
+                    writeObject(element, out);
+                }
+            }
+            endContainer(out, "array", empty);
+        } else if (type == BPListType.DATA) {
+            out.writeElement("data", Base64.encodeBytes((byte[]) object.getValue(), Base64.DONT_BREAK_LINES));
+        } else if (type == BPListType.DATE) {
+            out.writeElement("date", ConvertToXml.fromDate((Date) object.getValue()).toXMLFormat() + "Z");
+        } else {
+            out.writeElement(leafName(type), object.getValue().toString());
+        }
+    }
+
+    /**
+     * Closes the start tag of an array or dict before its first child
+     *
+     * @return False, the container is not empty anymore
+     */
+    private static boolean startContainer(XmlOutput out, boolean empty) throws IOException {
+        if (empty) {
+            out.write('>');
+        }
+        return false;
+    }
+
+    private static void endContainer(XmlOutput out, String name, boolean empty) throws IOException {
+        if (empty) {
+            out.write("/>");
+            return;
+        }
+        out.write("</");
+        out.write(name);
+        out.write('>');
+    }
+
+    private static String leafName(BPListType type) {
+        switch (type) {
+            case ASCII_STRING:
+            case UNICODE_STRING:
+                return "string";
+            case LONG:
+                return "integer";
+            case FLOAT:
+            case DOUBLE:
+                return "real";
+            case BOOLEAN:
+                return "boolean";
+            default:
+                return "UID";
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package nl.pvanassen.bplist.converter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+import nl.pvanassen.bplist.ext.nanoxml.XMLElement;
+
+/**
+ * Serializes an {@link XMLElement} to the same text as
+ * {@link XMLElement#write(Writer)}, but faster. Content is scanned for
+ * characters that need escaping and the runs in between are copied in bulk
+ * through a buffer, instead of writing every character on its own. Text can go
+ * to a writer, straight to UTF-8 bytes, or into a {@link StringBuilder} or any
+ * other {@link Appendable}.
+ *
+ * @author Paul van Assen
+ */
+public class XMLElementWriter {
+
+    /**
+     * @param element
+     *            Element to write, children included
+     * @param writer
+     *            Writer to write to, flushed once at the end but not closed
+     * @throws IOException
+     *             If the writer fails
+     */
+    public void write(XMLElement element, Writer writer) throws IOException {
+        write(element, new XmlOutput(writer, false));
+    }
+
+    /**
+     * @param element
+     *            Element to write, children included
+     * @param out
+     *            Stream to write UTF-8 to, flushed once at the end but not closed
+     * @throws IOException
+     *             If the stream fails
+     */
+    public void write(XMLElement element, OutputStream out) throws IOException {
+        write(element, new XmlOutput(out, false));
+    }
+
+    /**
+     * @param element
+     *            Element to write, children included
+     * @param appendable
+     *            Appendable to append to
+     * @throws IOException
+     *             If the appendable fails
+     */
+    public void write(XMLElement element, Appendable appendable) throws IOException {
+        write(element, new XmlOutput(appendable));
+    }
+
+    /**
+     * @param element
+     *            Element to write, children included
+     * @return Text of the element, equal to {@link XMLElement#toString()}
+     */
+    public String toString(XMLElement element) {
+        StringBuilder builder = new StringBuilder();
+        try {
+            write(element, builder);
+        } catch (IOException e) {
+            // A string builder does not throw
+            throw new IllegalStateException(e);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param element
+     *            Element to write, children included
+     * @return Text of the element in UTF-8
+     */
+    public byte[] toByteArray(XMLElement element) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            write(element, out);
+        } catch (IOException e) {
+            // A byte array stream does not throw
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private void write(XMLElement element, XmlOutput out) throws IOException {
+        writeElement(element, out);
+        out.flush();
+    }
+
+    private void writeElement(XMLElement element, XmlOutput out) throws IOException {
+        String name = element.getName();
+        String contents = element.getContent();
+        if (name == null) {
+            out.writeEncoded(contents);
+            return;
+        }
+        out.write('<');
+        out.write(name);
+        Iterator<String> attributes = element.enumerateAttributeNames();
+        while (attributes.hasNext()) {
+            String key = attributes.next();
+            out.write(' ');
+            out.write(key);
+            out.write("=\"");
+            out.writeEncoded(element.getAttribute(key).toString());
+            out.write('"');
+        }
+        if ((contents != null) && (contents.length() > 0)) {
+            out.write('>');
+            out.writeEncoded(contents);
+            out.write("</");
+            out.write(name);
+            out.write('>');
+            return;
+        }
+        Iterator<XMLElement> children = element.iterateChildren();
+        if (!children.hasNext()) {
+            out.write("/>");
+            return;
+        }
+        out.write('>');
+        while (children.hasNext()) {
+            writeElement(children.next(), out);
+        }
+        out.write("</");
+        out.write(name);
+        out.write('>');
+    }
+}
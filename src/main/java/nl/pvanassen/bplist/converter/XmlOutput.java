@@ -0,0 +1,242 @@
+package nl.pvanassen.bplist.converter;
+
+import java.io.*;
+import java.nio.CharBuffer;
+
+/**
+ * Buffered output of XML text, escaping content the way
+ * {@link nl.pvanassen.bplist.ext.nanoxml.XMLElement} does: markup characters
+ * become entities, characters outside of printable ASCII become character
+ * references. Escaped content is plain ASCII, streams get UTF-8 so markup
+ * outside of ASCII comes out right as well.
+ * <p>
+ * Content is scanned for characters that need escaping, the runs in between
+ * are copied in bulk. The buffer is handed to the writer, stream or appendable
+ * whenever it is full. A writer or stream can be flushed after every buffer,
+ * so text goes out while the rest is still being produced, or only by
+ * {@link #flush()}. Writers and streams are never closed.
+ *
+ * @author Paul van Assen
+ */
+final class XmlOutput {
+    private static final int BUFFER_SIZE = 8192;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private final Writer writer;
+    private final OutputStream out;
+    private final Appendable appendable;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private final byte[] bytes;
+    private final boolean flushChunks;
+    private int length;
+
+    /**
+     * @param writer
+     *            Writer to write to
+     * @param flushChunks
+     *            Flush the writer after every buffer, not only on
+     *            {@link #flush()}
+     */
+    XmlOutput(Writer writer, boolean flushChunks) {
+        this(writer, null, null, flushChunks);
+    }
+
+    /**
+     * @param out
+     *            Stream to write UTF-8 to
+     * @param flushChunks
+     *            Flush the stream after every buffer, not only on
+     *            {@link #flush()}
+     */
+    XmlOutput(OutputStream out, boolean flushChunks) {
+        this(null, out, null, flushChunks);
+    }
+
+    /**
+     * @param appendable
+     *            Appendable to append to, such as a {@link StringBuilder}
+     */
+    XmlOutput(Appendable appendable) {
+        this(null, null, appendable, false);
+    }
+
+    private XmlOutput(Writer writer, OutputStream out, Appendable appendable, boolean flushChunks) {
+        this.writer = writer;
+        this.out = out;
+        this.appendable = appendable;
+        this.flushChunks = flushChunks;
+        // A char takes at most 3 bytes, only surrogate pairs take 4
+        this.bytes = (out == null) ? null : new byte[BUFFER_SIZE * 3];
+    }
+
+    void write(char ch) throws IOException {
+        if (length == BUFFER_SIZE) {
+            drain();
+        }
+        buffer[length++] = ch;
+    }
+
+    /**
+     * Writes markup as is
+     */
+    void write(String str) throws IOException {
+        write(str, 0, str.length());
+    }
+
+    private void write(String str, int from, int to) throws IOException {
+        while (from < to) {
+            if (length == BUFFER_SIZE) {
+                drain();
+            }
+            int chunk = Math.min(to - from, BUFFER_SIZE - length);
+            str.getChars(from, from + chunk, buffer, length);
+            length += chunk;
+            from += chunk;
+        }
+    }
+
+    /**
+     * Writes content, escaping what needs escaping
+     */
+    void writeEncoded(String str) throws IOException {
+        int start = 0;
+        int end = str.length();
+        for (int i = 0; i < end; i++) {
+            char ch = str.charAt(i);
+            if ((ch >= 32) && (ch <= 126) && (ch != '<') && (ch != '>') && (ch != '&') && (ch != '"') && (ch != '\'')) {
+                continue;
+            }
+            write(str, start, i);
+            start = i + 1;
+            switch (ch) {
+                case '<':
+                    write("&lt;");
+                    break;
+                case '>':
+                    write("&gt;");
+                    break;
+                case '&':
+                    write("&amp;");
+                    break;
+                case '"':
+                    write("&quot;");
+                    break;
+                case '\'':
+                    write("&apos;");
+                    break;
+                default:
+                    writeReference(ch);
+                    break;
+            }
+        }
+        write(str, start, end);
+    }
+
+    /**
+     * Writes an element with text content, or an empty element tag when the
+     * content is empty
+     */
+    void writeElement(String name, String content) throws IOException {
+        write('<');
+        write(name);
+        if (content.isEmpty()) {
+            write("/>");
+            return;
+        }
+        write('>');
+        writeEncoded(content);
+        write("</");
+        write(name);
+        write('>');
+    }
+
+    /**
+     * Writes out the buffer and flushes the writer or stream
+     */
+    void flush() throws IOException {
+        drain();
+        flushTarget();
+    }
+
+    /**
+     * Character reference in lower case hex without leading zeros
+     */
+    private void writeReference(char ch) throws IOException {
+        write("&#x");
+        int shift = 12;
+        while ((shift > 0) && (((ch >> shift) & 0xf) == 0)) {
+            shift -= 4;
+        }
+        for (; shift >= 0; shift -= 4) {
+            write(HEX[(ch >> shift) & 0xf]);
+        }
+        write(';');
+    }
+
+    /**
+     * Hands the buffer to the writer, stream or appendable, flushing a writer
+     * or stream when asked for
+     */
+    private void drain() throws IOException {
+        if (out != null) {
+            drainUtf8();
+        } else {
+            if (writer != null) {
+                writer.write(buffer, 0, length);
+            } else if (appendable instanceof StringBuilder) {
+                ((StringBuilder) appendable).append(buffer, 0, length);
+            } else {
+                appendable.append(CharBuffer.wrap(buffer, 0, length));
+            }
+            length = 0;
+        }
+        if (flushChunks) {
+            flushTarget();
+        }
+    }
+
+    private void flushTarget() throws IOException {
+        if (out != null) {
+            out.flush();
+        } else if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Encodes the buffer as UTF-8. A high surrogate at the end is kept back
+     * until its low surrogate has been written.
+     */
+    private void drainUtf8() throws IOException {
+        int end = length;
+        if ((end > 0) && Character.isHighSurrogate(buffer[end - 1]) && (end == BUFFER_SIZE)) {
+            end--;
+        }
+        int count = 0;
+        for (int i = 0; i < end; i++) {
+            char ch = buffer[i];
+            if (ch < 0x80) {
+                bytes[count++] = (byte) ch;
+            } else if (ch < 0x800) {
+                bytes[count++] = (byte) (0xc0 | (ch >> 6));
+                bytes[count++] = (byte) (0x80 | (ch & 0x3f));
+            } else if (Character.isHighSurrogate(ch) && ((i + 1) < end) && Character.isLowSurrogate(buffer[i + 1])) {
+                int codePoint = Character.toCodePoint(ch, buffer[++i]);
+                bytes[count++] = (byte) (0xf0 | (codePoint >> 18));
+                bytes[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                bytes[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                bytes[count++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(ch)) {
+                bytes[count++] = '?';
+            } else {
+                bytes[count++] = (byte) (0xe0 | (ch >> 12));
+                bytes[count++] = (byte) (0x80 | ((ch >> 6) & 0x3f));
+                bytes[count++] = (byte) (0x80 | (ch & 0x3f));
+            }
+        }
+        out.write(bytes, 0, count);
+        if (end < length) {
+            buffer[0] = buffer[end];
+        }
+        length = length - end;
+    }
+}
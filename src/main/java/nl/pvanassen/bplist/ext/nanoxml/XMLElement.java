@@ -1354,11 +1354,9 @@ public class XMLElement {
     @Override
     public String toString() {
         try {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            OutputStreamWriter writer = new OutputStreamWriter(out);
+            StringWriter writer = new StringWriter();
             write(writer);
-            writer.flush();
-            return new String(out.toByteArray());
+            return writer.toString();
         } catch (IOException e) {
             // Java exception handling suxx
             return super.toString();
@@ -0,0 +1,32 @@
+package nl.pvanassen.bplist.parser;
+
+/**
+ * Base class for elements, the primitive accessors fail unless an element
+ * overrides the ones for its type.
+ *
+ * @author Paul van Assen
+ *
+ * @param <T> Data type in Java language
+ */
+abstract class AbstractBPListElement<T> implements BPListElement<T> {
+
+    @Override
+    public long asLong() {
+        throw new IllegalStateException("Not a number: " + getType());
+    }
+
+    @Override
+    public double asDouble() {
+        throw new IllegalStateException("Not a number: " + getType());
+    }
+
+    @Override
+    public boolean asBoolean() {
+        throw new IllegalStateException("Not a boolean: " + getType());
+    }
+
+    @Override
+    public int asUid() {
+        throw new IllegalStateException("Not a uid: " + getType());
+    }
+}
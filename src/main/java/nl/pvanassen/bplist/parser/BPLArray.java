@@ -4,8 +4,11 @@ import java.util.*;
 
 /**
  * Holder for a binary PList array element.
+ * <p>
+ * Single elements can be read with {@link #get(int)}, numbers, booleans and
+ * uids without boxing them with {@link #getLong(int)} and friends.
  */
-class BPLArray implements BPListElement<List<BPListElement<?>>> {
+public class BPLArray extends AbstractBPListElement<List<BPListElement<?>>> {
 
     private final List<BPListElement<?>> objectTable;
     private final int[] objref;
@@ -32,6 +35,74 @@ class BPLArray implements BPListElement<List<BPListElement<?>>> {
         return array;
     }
 
+    /**
+     * @return Number of elements
+     */
+    public int size() {
+        return objref.length;
+    }
+
+    /**
+     * @param index Element index
+     * @return Element, only this element is decoded
+     */
+    public BPListElement<?> get(int index) {
+        return objectTable.get(objref[index]);
+    }
+
+    /**
+     * Reads an integer or real without boxing it. Values are read straight
+     * from the bytes when the object table supports it.
+     *
+     * @param index Element index
+     * @return Value, reals are cast to long
+     */
+    public long getLong(int index) {
+        if (objectTable instanceof ValueTable) {
+            return ((ValueTable) objectTable).getLong(objref[index]);
+        }
+        return objectTable.get(objref[index]).asLong();
+    }
+
+    /**
+     * Reads an integer or real without boxing it
+     *
+     * @param index Element index
+     * @return Value
+     */
+    public double getDouble(int index) {
+        if (objectTable instanceof ValueTable) {
+            return ((ValueTable) objectTable).getDouble(objref[index]);
+        }
+        return objectTable.get(objref[index]).asDouble();
+    }
+
+    /**
+     * Reads a boolean without boxing it
+     *
+     * @param index Element index
+     * @return Value
+     */
+    public boolean getBoolean(int index) {
+        if (objectTable instanceof ValueTable) {
+            return ((ValueTable) objectTable).getBoolean(objref[index]);
+        }
+        return objectTable.get(objref[index]).asBoolean();
+    }
+
+    /**
+     * Reads a uid without boxing it
+     *
+     * @param index Element index
+     * @return Value
+     */
+    public int getUid(int index) {
+        if (objectTable instanceof ValueTable) {
+            return ((ValueTable) objectTable).getUid(objref[index]);
+        }
+        return objectTable.get(objref[index]).asUid();
+    }
+
     @Override
     public String toString() {
         StringBuffer buf = new StringBuffer("Array{");
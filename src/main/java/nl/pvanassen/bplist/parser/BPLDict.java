@@ -4,13 +4,20 @@ import java.util.*;
 
 /**
  * Holder for a binary PList dict element.
+ * <p>
+ * Single keys can be looked up with {@link #get(String)} and
+ * {@link #containsKey(String)}. These use an index over the keys that is built
+ * once, the first time it is needed, instead of a new map per call. The
+ * entries can be iterated in the order they are stored in the file with
+ * {@link #size()}, {@link #getKey(int)} and {@link #getValue(int)}.
  */
-class BPLDict implements BPListElement<Map<String,BPListElement<?>>> {
+public class BPLDict extends AbstractBPListElement<Map<String,BPListElement<?>>> {
 
     private final List<BPListElement<?>> objectTable;
     private final int[] keyref;
     private final int[] objref;
     private final BPListType type;
+    private KeyIndex keyIndex;
 
     BPLDict(List<BPListElement<?>> objectTable, int[] keyref, int[] objref, BPListType type) {
         super();
@@ -19,23 +26,196 @@ class BPLDict implements BPListElement<Map<String,BPListElement<?>>> {
         this.objref = objref;
         this.type = type;
     }
-    
+
     @Override
     public BPListType getType() {
          return type;
     }
-    
+
     @Override
     public Map<String,BPListElement<?>> getValue() {
+        String[] keys = getKeyIndex().keys;
         Map<String,BPListElement<?>> dict = new HashMap<>();
         for (int idx = 0;idx!=keyref.length;idx++) {
-            int key = keyref[idx];
-            int obj = objref[idx];
-            dict.put(objectTable.get(key).getValue().toString(), objectTable.get(obj));
+            dict.put(keys[idx], objectTable.get(objref[idx]));
         }
         return dict;
     }
 
+    /**
+     * @return Number of entries
+     */
+    public int size() {
+        return keyref.length;
+    }
+
+    /**
+     * @param index Entry index, in file order
+     * @return Key of the entry
+     */
+    public String getKey(int index) {
+        return getKeyIndex().keys[index];
+    }
+
+    /**
+     * @param index Entry index, in file order
+     * @return Value of the entry
+     */
+    public BPListElement<?> getValue(int index) {
+        return objectTable.get(objref[index]);
+    }
+
+    /**
+     * @param key Key to look up
+     * @return True if the dict has an entry with this key
+     */
+    public boolean containsKey(String key) {
+        return getKeyIndex().indexOf(key) != -1;
+    }
+
+    /**
+     * Looks up the value of a single key. Only the value found is decoded.
+     *
+     * @param key Key to look up
+     * @return Value of the key, or null if the key is not present
+     */
+    public BPListElement<?> get(String key) {
+        int index = getKeyIndex().indexOf(key);
+        if (index == -1) {
+            return null;
+        }
+        return objectTable.get(objref[index]);
+    }
+
+    /**
+     * Looks up an integer or real without boxing it. Values are read straight
+     * from the bytes when the object table supports it.
+     *
+     * @param key Key to look up
+     * @param defaultValue Value returned if the key is not present
+     * @return Value of the key, reals are cast to long
+     */
+    public long getLong(String key, long defaultValue) {
+        int index = getKeyIndex().indexOf(key);
+        if (index == -1) {
+            return defaultValue;
+        }
+        if (objectTable instanceof ValueTable) {
+            return ((ValueTable) objectTable).getLong(objref[index]);
+        }
+        return objectTable.get(objref[index]).asLong();
+    }
+
+    /**
+     * Looks up an integer or real without boxing it
+     *
+     * @param key Key to look up
+     * @param defaultValue Value returned if the key is not present
+     * @return Value of the key
+     */
+    public double getDouble(String key, double defaultValue) {
+        int index = getKeyIndex().indexOf(key);
+        if (index == -1) {
+            return defaultValue;
+        }
+        if (objectTable instanceof ValueTable) {
+            return ((ValueTable) objectTable).getDouble(objref[index]);
+        }
+        return objectTable.get(objref[index]).asDouble();
+    }
+
+    /**
+     * Looks up a boolean without boxing it
+     *
+     * @param key Key to look up
+     * @param defaultValue Value returned if the key is not present
+     * @return Value of the key
+     */
+    public boolean getBoolean(String key, boolean defaultValue) {
+        int index = getKeyIndex().indexOf(key);
+        if (index == -1) {
+            return defaultValue;
+        }
+        if (objectTable instanceof ValueTable) {
+            return ((ValueTable) objectTable).getBoolean(objref[index]);
+        }
+        return objectTable.get(objref[index]).asBoolean();
+    }
+
+    /**
+     * Looks up a uid without boxing it
+     *
+     * @param key Key to look up
+     * @param defaultValue Value returned if the key is not present
+     * @return Value of the key
+     */
+    public int getUid(String key, int defaultValue) {
+        int index = getKeyIndex().indexOf(key);
+        if (index == -1) {
+            return defaultValue;
+        }
+        if (objectTable instanceof ValueTable) {
+            return ((ValueTable) objectTable).getUid(objref[index]);
+        }
+        return objectTable.get(objref[index]).asUid();
+    }
+
+    private KeyIndex getKeyIndex() {
+        KeyIndex index = keyIndex;
+        if (index == null) {
+            String[] keys = new String[keyref.length];
+            for (int idx = 0; idx != keyref.length; idx++) {
+                keys[idx] = (objectTable instanceof KeyTable) ? ((KeyTable) objectTable).getKey(keyref[idx]) : objectTable.get(keyref[idx]).getValue().toString();
+            }
+            index = new KeyIndex(keys);
+            // Racing threads build equal indexes, the final fields make publishing safe
+            keyIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Open addressing hash table from key to entry index. Keys occurring more
+     * than once map to their last entry, like they do in {@link #getValue()}.
+     */
+    private static final class KeyIndex {
+        private final String[] keys;
+        private final int[] slots;
+        private final int mask;
+
+        private KeyIndex(String[] keys) {
+            this.keys = keys;
+            int capacity = Integer.highestOneBit(Math.max(keys.length, 1) * 2 - 1) << 1;
+            this.slots = new int[capacity];
+            this.mask = capacity - 1;
+            for (int idx = 0; idx != keys.length; idx++) {
+                int slot = hash(keys[idx]) & mask;
+                while ((slots[slot] != 0) && !keys[slots[slot] - 1].equals(keys[idx])) {
+                    slot = (slot + 1) & mask;
+                }
+                // Entry indexes are stored plus one, so zero marks an empty slot
+                slots[slot] = idx + 1;
+            }
+        }
+
+        private int indexOf(String key) {
+            int slot = hash(key) & mask;
+            while (slots[slot] != 0) {
+                int idx = slots[slot] - 1;
+                if (keys[idx].equals(key)) {
+                    return idx;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static int hash(String key) {
+            int h = key.hashCode();
+            return h ^ (h >>> 16);
+        }
+    }
+
     @Override
     public String toString() {
         StringBuffer buf = new StringBuffer("BPLDict{");
@@ -64,4 +244,4 @@ class BPLDict implements BPListElement<Map<String,BPListElement<?>>> {
         buf.append('}');
         return buf.toString();
     }
-}
\ No newline at end of file
+}
@@ -1,7 +1,7 @@
 package nl.pvanassen.bplist.parser;
 
 /** Holder for a binary PList Uid element. */
-class BPLUid implements BPListElement<Integer> {
+class BPLUid extends AbstractBPListElement<Integer> {
     private final int number;
 
     BPLUid(int number) {
@@ -17,4 +17,9 @@ class BPLUid implements BPListElement<Integer> {
     public Integer getValue() {
         return number;
     }
+
+    @Override
+    public int asUid() {
+        return number;
+    }
 }
\ No newline at end of file
@@ -1,6 +1,6 @@
 package nl.pvanassen.bplist.parser;
 
-class BPListBoolean implements BPListElement<Boolean> {
+class BPListBoolean extends AbstractBPListElement<Boolean> {
     private final Boolean value;
 
     static BPListBoolean TRUE = new BPListBoolean(Boolean.TRUE);
@@ -17,4 +17,9 @@ class BPListBoolean implements BPListElement<Boolean> {
     public Boolean getValue() {
         return value;
     }
+
+    @Override
+    public boolean asBoolean() {
+        return value;
+    }
 }
@@ -0,0 +1,507 @@
+package nl.pvanassen.bplist.parser;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Big-endian reader over the raw bytes of a bplist. Positions are offsets
+ * from the start of the file, so markers, counts and values can be read
+ * straight from a memory mapped file without copying it to the heap first.
+ * <p>
+ * A single buffer can not hold more than 2 GB, so the bytes may be split over
+ * segments of equal size. Positions are 64 bit, values that straddle two
+ * segments are put together from both.
+ * <p>
+ * A reader is not thread safe. Threads that share the bytes, for example
+ * through a lazy object table, read through their own {@link #duplicate()}.
+ * Absolute reads like {@link #getChar(long)} leave the read position alone
+ * and are safe from any thread.
+ *
+ * @author Paul van Assen
+ */
+final class BPListBuffer {
+    private final ByteBuffer[] segments;
+    private final int segmentShift;
+    private final long length;
+    private final BPListBuffer root;
+    private int segment;
+    private ByteBuffer buffer;
+
+    /**
+     * @param buffer Bytes of the complete bplist, starting at the magic
+     */
+    BPListBuffer(ByteBuffer buffer) {
+        this(new ByteBuffer[] { buffer.slice() }, 31);
+    }
+
+    /**
+     * @param segments
+     *            Bytes of the complete bplist, starting at the magic. Every
+     *            segment but the last holds exactly 2^segmentShift bytes
+     *            between zero and its limit.
+     * @param segmentShift
+     *            Log2 of the segment size
+     */
+    BPListBuffer(ByteBuffer[] segments, int segmentShift) {
+        this(segments, segmentShift, null);
+    }
+
+    private BPListBuffer(ByteBuffer[] segments, int segmentShift, BPListBuffer root) {
+        this.segments = new ByteBuffer[segments.length];
+        long total = 0;
+        for (int i = 0; i < segments.length; i++) {
+            this.segments[i] = segments[i].duplicate().order(ByteOrder.BIG_ENDIAN);
+            this.segments[i].position(0);
+            total += this.segments[i].limit();
+        }
+        this.segmentShift = segmentShift;
+        this.length = total;
+        this.root = (root == null) ? this : root;
+        this.buffer = this.segments[0];
+    }
+
+    /**
+     * @return Independent reader over the same bytes, positioned at the start
+     */
+    BPListBuffer duplicate() {
+        return new BPListBuffer(segments, segmentShift, root);
+    }
+
+    /**
+     * @return The reader this one was duplicated from, or this reader. Values
+     *         that keep a reference to the bytes keep the root, so they hold
+     *         no duplicate alive and compare equal buffers by identity.
+     */
+    BPListBuffer root() {
+        return root;
+    }
+
+    /**
+     * @return Total number of bytes available
+     */
+    long length() {
+        return length;
+    }
+
+    /**
+     * @return Current read position
+     */
+    long position() {
+        return ((long) segment << segmentShift) + buffer.position();
+    }
+
+    /**
+     * Moves the read position
+     *
+     * @param position New position
+     * @throws EOFException If the position is outside of the buffer
+     */
+    void seek(long position) throws EOFException {
+        if ((position < 0) || (position > length)) {
+            throw new EOFException("seek: position " + position + " outside of buffer");
+        }
+        // The end of a full last segment stays in that segment
+        segment = (int) Math.min(position >>> segmentShift, segments.length - 1);
+        buffer = segments[segment];
+        buffer.position((int) (position - ((long) segment << segmentShift)));
+    }
+
+    /**
+     * @return Next unsigned byte, or -1 if the end is reached
+     */
+    int read() {
+        if (!buffer.hasRemaining() && !nextSegment()) {
+            return -1;
+        }
+        return buffer.get() & 0xff;
+    }
+
+    int readUnsignedByte() throws EOFException {
+        int b = read();
+        if (b == -1) {
+            throw new EOFException("Illegal EOF at position " + position() + ", 1 bytes needed");
+        }
+        return b;
+    }
+
+    char readChar() throws EOFException {
+        if (buffer.remaining() >= 2) {
+            return buffer.getChar();
+        }
+        return (char) readSized(2);
+    }
+
+    int readInt() throws EOFException {
+        if (buffer.remaining() >= 4) {
+            return buffer.getInt();
+        }
+        return (int) readSized(4);
+    }
+
+    long readLong() throws EOFException {
+        if (buffer.remaining() >= 8) {
+            return buffer.getLong();
+        }
+        return readSized(8);
+    }
+
+    float readFloat() throws EOFException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    double readDouble() throws EOFException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    /**
+     * Reads an unsigned big-endian integer of the given width, as used for
+     * the offsets and object refs whose size is given in the trailer.
+     *
+     * @param size Number of bytes, 1 to 8
+     * @return Value read
+     * @throws EOFException If not enough bytes are available
+     */
+    long readSized(int size) throws EOFException {
+        require(size);
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | read();
+        }
+        return value;
+    }
+
+    /**
+     * Hash of the next bytes, the position does not move
+     *
+     * @param length Number of bytes to hash
+     * @return Hash code like {@link java.util.Arrays#hashCode(byte[])} of the
+     *         bytes read as unsigned
+     * @throws EOFException If not enough bytes are available
+     */
+    int hash(int length) throws EOFException {
+        require(length);
+        long start = position();
+        int hash = 1;
+        for (int i = 0; i < length; i++) {
+            hash = (31 * hash) + read();
+        }
+        seek(start);
+        return hash;
+    }
+
+    /**
+     * Compares the next bytes, the position does not move
+     *
+     * @param bytes Bytes to compare with
+     * @return True if the next bytes are equal to the given bytes
+     * @throws EOFException If not enough bytes are available
+     */
+    boolean startsWith(byte[] bytes) throws EOFException {
+        require(bytes.length);
+        long start = position();
+        boolean equal = true;
+        for (int i = 0; equal && (i < bytes.length); i++) {
+            equal = read() == (bytes[i] & 0xff);
+        }
+        seek(start);
+        return equal;
+    }
+
+    void readFully(byte[] dst) throws EOFException {
+        readFully(dst, 0, dst.length);
+    }
+
+    void readFully(byte[] dst, int offset, int length) throws EOFException {
+        require(length);
+        int done = 0;
+        while (done < length) {
+            if (!buffer.hasRemaining()) {
+                nextSegment();
+            }
+            int chunk = Math.min(length - done, buffer.remaining());
+            buffer.get(dst, offset + done, chunk);
+            done += chunk;
+        }
+    }
+
+    /**
+     * Bulk decode of an ASCII string. Runs of 7 bit characters, nearly all
+     * strings, are copied as Latin-1 straight from the backing array when
+     * there is one. Other strings are decoded as US-ASCII, so bytes outside
+     * of ASCII become the replacement character.
+     *
+     * @param count Number of bytes
+     * @return Decoded string
+     * @throws EOFException If not enough bytes are available
+     */
+    String readAscii(int count) throws EOFException {
+        require(count);
+        if (buffer.hasArray() && (buffer.remaining() >= count)) {
+            byte[] array = buffer.array();
+            int start = buffer.arrayOffset() + buffer.position();
+            buffer.position(buffer.position() + count);
+            return ascii(array, start, count);
+        }
+        byte[] bytes = new byte[count];
+        readFully(bytes);
+        return ascii(bytes, 0, count);
+    }
+
+    /**
+     * Bulk decode of a UTF-16 string through a char view of the buffer
+     *
+     * @param count Number of characters
+     * @return Decoded string
+     * @throws EOFException If not enough bytes are available
+     */
+    String readUtf16(int count) throws EOFException {
+        char[] chars = new char[count];
+        readChars(chars, 0, count);
+        return new String(chars);
+    }
+
+    /**
+     * Decodes ASCII bytes the way the US-ASCII charset does, taking the
+     * Latin-1 path when all bytes are 7 bit
+     */
+    static String ascii(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            if (bytes[i] < 0) {
+                return new String(bytes, offset, length, StandardCharsets.US_ASCII);
+            }
+        }
+        return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Bulk read of big-endian 2 byte values
+     */
+    void readChars(char[] dst, int offset, int length) throws EOFException {
+        require(length * 2L);
+        if (buffer.remaining() < (length * 2L)) {
+            for (int i = offset; i < (offset + length); i++) {
+                dst[i] = readChar();
+            }
+            return;
+        }
+        buffer.asCharBuffer().get(dst, offset, length);
+        buffer.position(buffer.position() + (length * 2));
+    }
+
+    /**
+     * Bulk read of unsigned big-endian integers of the given width, as used
+     * for the object refs of arrays and dicts. Every width has its own loop so
+     * the bounds are checked once per run instead of once per value.
+     *
+     * @param dst
+     *            Array to read into
+     * @param offset
+     *            Index of the first value in the array
+     * @param length
+     *            Number of values
+     * @param size
+     *            Byte size of every value, 1 to 8
+     * @throws IOException
+     *             If not enough bytes are available, or a value does not fit
+     *             in an int
+     */
+    void readRefs(int[] dst, int offset, int length, int size) throws IOException {
+        require((long) length * size);
+        int end = offset + length;
+        // Runs that straddle two segments take the generic loop
+        switch ((buffer.remaining() >= ((long) length * size)) ? size : 0) {
+            case 1:
+                for (int i = offset; i < end; i++) {
+                    dst[i] = buffer.get() & 0xff;
+                }
+                break;
+            case 2:
+                for (int i = offset; i < end; i++) {
+                    dst[i] = buffer.getChar();
+                }
+                break;
+            case 4:
+                for (int i = offset; i < end; i++) {
+                    int value = buffer.getInt();
+                    if (value < 0) {
+                        throw new IOException("readRefs: object ref " + (value & 0xffffffffL) + " out of range");
+                    }
+                    dst[i] = value;
+                }
+                break;
+            case 8:
+                for (int i = offset; i < end; i++) {
+                    long value = buffer.getLong();
+                    if ((value < 0) || (value > Integer.MAX_VALUE)) {
+                        throw new IOException("readRefs: object ref " + value + " out of range");
+                    }
+                    dst[i] = (int) value;
+                }
+                break;
+            default:
+                for (int i = offset; i < end; i++) {
+                    long value = readSized(size);
+                    if ((value < 0) || (value > Integer.MAX_VALUE)) {
+                        throw new IOException("readRefs: object ref " + value + " out of range");
+                    }
+                    dst[i] = (int) value;
+                }
+                break;
+        }
+    }
+
+    /**
+     * Bulk read of unsigned big-endian integers of the given width, as used
+     * for the offset table.
+     *
+     * @param dst
+     *            Array to fill
+     * @param size
+     *            Byte size of every value, 1 to 8
+     * @throws EOFException
+     *             If not enough bytes are available
+     */
+    void readOffsets(long[] dst, int size) throws EOFException {
+        require((long) dst.length * size);
+        // Tables that straddle two segments take the generic loop
+        switch ((buffer.remaining() >= ((long) dst.length * size)) ? size : 0) {
+            case 1:
+                for (int i = 0; i < dst.length; i++) {
+                    dst[i] = buffer.get() & 0xff;
+                }
+                break;
+            case 2:
+                for (int i = 0; i < dst.length; i++) {
+                    dst[i] = buffer.getChar();
+                }
+                break;
+            case 4:
+                for (int i = 0; i < dst.length; i++) {
+                    dst[i] = buffer.getInt() & 0xffffffffL;
+                }
+                break;
+            case 8:
+                for (int i = 0; i < dst.length; i++) {
+                    dst[i] = buffer.getLong();
+                }
+                break;
+            default:
+                for (int i = 0; i < dst.length; i++) {
+                    dst[i] = readSized(size);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Absolute read, the read position does not move
+     *
+     * @param position Position of the byte
+     * @return Unsigned byte at the position
+     * @throws EOFException If the position is outside of the buffer
+     */
+    int getUnsignedByte(long position) throws EOFException {
+        check(position, 1);
+        return segments[(int) (position >>> segmentShift)].get(index(position)) & 0xff;
+    }
+
+    /**
+     * Absolute read of a big-endian 2 byte value, the read position does not
+     * move
+     *
+     * @param position Position of the first byte
+     * @return Value at the position
+     * @throws EOFException If not enough bytes are available
+     */
+    char getChar(long position) throws EOFException {
+        check(position, 2);
+        ByteBuffer segment = segments[(int) (position >>> segmentShift)];
+        int index = index(position);
+        if ((index + 2) <= segment.limit()) {
+            return segment.getChar(index);
+        }
+        return (char) ((getUnsignedByte(position) << 8) | getUnsignedByte(position + 1));
+    }
+
+    /**
+     * Absolute bulk decode of an ASCII string, see {@link #readAscii(int)}.
+     * The read position does not move.
+     *
+     * @param position Position of the first byte
+     * @param count Number of bytes
+     * @return Decoded string
+     * @throws EOFException If not enough bytes are available
+     */
+    String getAscii(long position, int count) throws EOFException {
+        check(position, count);
+        if (count == 0) {
+            return "";
+        }
+        ByteBuffer segment = segments[(int) (position >>> segmentShift)];
+        int index = index(position);
+        if (segment.hasArray() && ((index + count) <= segment.limit())) {
+            return ascii(segment.array(), segment.arrayOffset() + index, count);
+        }
+        byte[] bytes = new byte[count];
+        for (int i = 0; i < count; i++) {
+            bytes[i] = (byte) getUnsignedByte(position + i);
+        }
+        return ascii(bytes, 0, count);
+    }
+
+    /**
+     * Absolute bulk decode of a UTF-16 string, the read position does not
+     * move
+     *
+     * @param position Position of the first byte
+     * @param count Number of characters
+     * @return Decoded string
+     * @throws EOFException If not enough bytes are available
+     */
+    String getUtf16(long position, int count) throws EOFException {
+        check(position, count * 2L);
+        if (count == 0) {
+            return "";
+        }
+        char[] chars = new char[count];
+        ByteBuffer segment = segments[(int) (position >>> segmentShift)];
+        int index = index(position);
+        if ((index + (count * 2L)) <= segment.limit()) {
+            ByteBuffer bytes = segment.duplicate();
+            bytes.position(index);
+            bytes.asCharBuffer().get(chars);
+        } else {
+            for (int i = 0; i < count; i++) {
+                chars[i] = getChar(position + (2L * i));
+            }
+        }
+        return new String(chars);
+    }
+
+    private int index(long position) {
+        return (int) (position & ((1L << segmentShift) - 1));
+    }
+
+    private void check(long position, long count) throws EOFException {
+        if ((position < 0) || ((length - position) < count)) {
+            throw new EOFException("Illegal EOF at position " + position + ", " + count + " bytes needed");
+        }
+    }
+
+    private boolean nextSegment() {
+        if ((segment + 1) >= segments.length) {
+            return false;
+        }
+        buffer = segments[++segment];
+        buffer.position(0);
+        return true;
+    }
+
+    private void require(long count) throws EOFException {
+        if ((length - position()) < count) {
+            throw new EOFException("Illegal EOF at position " + position() + ", " + count + " bytes needed");
+        }
+    }
+}
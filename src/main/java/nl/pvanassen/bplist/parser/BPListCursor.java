@@ -0,0 +1,405 @@
+package nl.pvanassen.bplist.parser;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Reusable cursor for walking a {@link BPListDocument} without creating
+ * elements. The cursor points at one object at a time and reads markers,
+ * counts, refs and values straight from the bytes of the document. Moving
+ * around and reading numbers or comparing strings allocates nothing, only
+ * {@link #stringValue()} creates a string.
+ * <p>
+ * A cursor has its own read position, so several cursors can be used on the
+ * same document. A single cursor is not thread safe.
+ *
+ * @author Paul van Assen
+ */
+public class BPListCursor {
+    private final BPListBuffer in;
+    private final BPListTrailer trailer;
+    private int[] parents = new int[16];
+    private int depth;
+
+    private int ref;
+    private int marker;
+    private int count;
+    private long content;
+
+    BPListCursor(BPListBuffer in, BPListTrailer trailer) throws IOException {
+        this.in = in;
+        this.trailer = trailer;
+        load(trailer.getTopObject());
+    }
+
+    /**
+     * Moves back to the top level object
+     *
+     * @throws IOException
+     *             In case of an error
+     */
+    public void reset() throws IOException {
+        depth = 0;
+        load(trailer.getTopObject());
+    }
+
+    /**
+     * @return Reference of the current object
+     */
+    public int ref() {
+        return ref;
+    }
+
+    /**
+     * @return Type of the current object, or null for the null object
+     */
+    public BPListType type() {
+        switch ((marker & 0xf0) >> 4) {
+            case 0:
+                return (marker == 0) ? null : BPListType.BOOLEAN;
+            case 1:
+                return BPListType.LONG;
+            case 2:
+                return (count == 4) ? BPListType.FLOAT : BPListType.DOUBLE;
+            case 3:
+                return BPListType.DATE;
+            case 4:
+                return BPListType.DATA;
+            case 5:
+                return BPListType.ASCII_STRING;
+            case 6:
+                return BPListType.UNICODE_STRING;
+            case 8:
+                return BPListType.UID;
+            case 10:
+                return BPListType.array(trailer.getObjectRefSize());
+            case 13:
+                return BPListType.dict(trailer.getObjectRefSize());
+            default:
+                // load only accepts the markers above
+                throw new IllegalStateException("Illegal marker " + Integer.toBinaryString(marker));
+        }
+    }
+
+    /**
+     * @return True if the current object is the null object
+     */
+    public boolean isNull() {
+        return marker == 0;
+    }
+
+    /**
+     * @return Number of elements of an array, entries of a dict, characters of
+     *         a string or bytes of data. Zero for other objects.
+     */
+    public int size() {
+        switch ((marker & 0xf0) >> 4) {
+            case 4:
+            case 5:
+            case 6:
+            case 10:
+            case 13:
+                return count;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Moves to an element of the current array, or to the value of an entry
+     * of the current dict
+     *
+     * @param index
+     *            Index of the element or entry, in file order
+     * @return False if the current object is no array or dict, or has no such
+     *         element. The cursor does not move in that case.
+     * @throws IOException
+     *             In case of an error
+     */
+    public boolean moveToChild(int index) throws IOException {
+        int type = (marker & 0xf0) >> 4;
+        if (((type != 10) && (type != 13)) || (index < 0) || (index >= count)) {
+            return false;
+        }
+        descend((type == 13) ? count + index : index);
+        return true;
+    }
+
+    /**
+     * Moves to the key of an entry of the current dict
+     *
+     * @param index
+     *            Index of the entry, in file order
+     * @return False if the current object is no dict, or has no such entry.
+     *         The cursor does not move in that case.
+     * @throws IOException
+     *             In case of an error
+     */
+    public boolean moveToKey(int index) throws IOException {
+        if ((((marker & 0xf0) >> 4) != 13) || (index < 0) || (index >= count)) {
+            return false;
+        }
+        descend(index);
+        return true;
+    }
+
+    /**
+     * Moves to the value of a key of the current dict. Keys are compared
+     * without decoding them. When a key occurs more than once the last entry
+     * wins, like it does in {@link BPLDict#getValue()}.
+     *
+     * @param key
+     *            Key to look up
+     * @return False if the current object is no dict, or does not have the
+     *         key. The cursor does not move in that case.
+     * @throws IOException
+     *             In case of an error
+     */
+    public boolean moveToChild(String key) throws IOException {
+        if (((marker & 0xf0) >> 4) != 13) {
+            return false;
+        }
+        int refSize = trailer.getObjectRefSize();
+        for (int index = count - 1; index >= 0; index--) {
+            in.seek(content + ((long) index * refSize));
+            int keyRef = readRef();
+            in.seek(trailer.getOffset(in, keyRef));
+            if (stringEquals(in.readUnsignedByte(), key)) {
+                descend(count + index);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves back to the array or dict the cursor came from
+     *
+     * @return False if the cursor is at the object it started from
+     * @throws IOException
+     *             In case of an error
+     */
+    public boolean moveToParent() throws IOException {
+        if (depth == 0) {
+            return false;
+        }
+        load(parents[--depth]);
+        return true;
+    }
+
+    /**
+     * @return Value of the current integer, real or date as a long
+     * @throws IOException
+     *             In case of an error
+     */
+    public long longValue() throws IOException {
+        switch ((marker & 0xf0) >> 4) {
+            case 1:
+                if (count > 8) {
+                    throw new IOException("longValue: unsupported byte count: " + count);
+                }
+                in.seek(content);
+                return in.readSized(count);
+            case 2:
+            case 3:
+                return (long) doubleValue();
+            default:
+                throw new IllegalStateException("Not a number: " + type());
+        }
+    }
+
+    /**
+     * @return Value of the current integer, real or date as a double. Dates
+     *         are seconds since 2001-01-01.
+     * @throws IOException
+     *             In case of an error
+     */
+    public double doubleValue() throws IOException {
+        switch ((marker & 0xf0) >> 4) {
+            case 1:
+                return longValue();
+            case 2:
+                in.seek(content);
+                return (count == 4) ? in.readFloat() : in.readDouble();
+            case 3:
+                in.seek(content);
+                return in.readDouble();
+            default:
+                throw new IllegalStateException("Not a number: " + type());
+        }
+    }
+
+    /**
+     * @return Value of the current boolean
+     */
+    public boolean booleanValue() {
+        if ((marker != 0x08) && (marker != 0x09)) {
+            throw new IllegalStateException("Not a boolean: " + type());
+        }
+        return marker == 0x09;
+    }
+
+    /**
+     * @return Value of the current uid
+     * @throws IOException
+     *             In case of an error
+     */
+    public int uidValue() throws IOException {
+        if (((marker & 0xf0) >> 4) != 8) {
+            throw new IllegalStateException("Not a uid: " + type());
+        }
+        in.seek(content);
+        return ElementParser.readUidValue(in, count);
+    }
+
+    /**
+     * @return Value of the current date
+     * @throws IOException
+     *             In case of an error
+     */
+    public Date dateValue() throws IOException {
+        if (((marker & 0xf0) >> 4) != 3) {
+            throw new IllegalStateException("Not a date: " + type());
+        }
+        return BPListDate.toDate(doubleValue());
+    }
+
+    /**
+     * @return Copy of the bytes of the current data
+     * @throws IOException
+     *             In case of an error
+     */
+    public byte[] dataValue() throws IOException {
+        if (((marker & 0xf0) >> 4) != 4) {
+            throw new IllegalStateException("Not data: " + type());
+        }
+        in.seek(content);
+        byte[] data = new byte[count];
+        in.readFully(data);
+        return data;
+    }
+
+    /**
+     * Compares the current string without decoding it
+     *
+     * @param value
+     *            String to compare with
+     * @return True if the current object is a string equal to the value
+     * @throws IOException
+     *             In case of an error
+     */
+    public boolean stringEquals(String value) throws IOException {
+        in.seek(content);
+        return matches(marker, count, value);
+    }
+
+    /**
+     * @return Decoded value of the current string
+     * @throws IOException
+     *             In case of an error
+     */
+    public String stringValue() throws IOException {
+        int type = (marker & 0xf0) >> 4;
+        if ((type != 5) && (type != 6)) {
+            throw new IllegalStateException("Not a string: " + type());
+        }
+        in.seek(content);
+        return (type == 5) ? in.readAscii(count) : in.readUtf16(count);
+    }
+
+    private void descend(int refIndex) throws IOException {
+        in.seek(content + ((long) refIndex * trailer.getObjectRefSize()));
+        int child = readRef();
+        if (depth == parents.length) {
+            parents = Arrays.copyOf(parents, depth * 2);
+        }
+        parents[depth++] = ref;
+        load(child);
+    }
+
+    private void load(int object) throws IOException {
+        in.seek(trailer.getOffset(in, object));
+        int objectMarker = in.readUnsignedByte();
+        int objectCount = objectMarker & 0xf;
+        switch ((objectMarker & 0xf0) >> 4) {
+            case 0:
+                if ((objectMarker != 0x00) && (objectMarker != 0x08) && (objectMarker != 0x09)) {
+                    throw illegalMarker(object, objectMarker);
+                }
+                break;
+            case 3:
+                if (objectMarker != 0x33) {
+                    throw illegalMarker(object, objectMarker);
+                }
+                break;
+            case 1:
+            case 2:
+                objectCount = 1 << objectCount;
+                break;
+            case 8:
+                objectCount++;
+                break;
+            case 4:
+            case 5:
+            case 6:
+            case 10:
+            case 13:
+                if (objectCount == 15) {
+                    objectCount = ElementParser.readCount(in);
+                }
+                break;
+            default:
+                throw illegalMarker(object, objectMarker);
+        }
+        ref = object;
+        marker = objectMarker;
+        count = objectCount;
+        content = in.position();
+    }
+
+    private static IOException illegalMarker(int object, int objectMarker) {
+        return new IOException("load: illegal marker " + Integer.toBinaryString(objectMarker) + " of object " + object);
+    }
+
+    private int readRef() throws IOException {
+        long value = in.readSized(trailer.getObjectRefSize());
+        if ((value < 0) || (value >= trailer.getObjectCount())) {
+            throw new IOException("readRef: object ref " + value + " not in object table");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads the count of the string with the given marker from the current
+     * position and compares its characters
+     */
+    private boolean stringEquals(int stringMarker, String value) throws IOException {
+        int stringCount = stringMarker & 0xf;
+        if ((stringCount == 15) && ((((stringMarker & 0xf0) >> 4) == 5) || (((stringMarker & 0xf0) >> 4) == 6))) {
+            stringCount = ElementParser.readCount(in);
+        }
+        return matches(stringMarker, stringCount, value);
+    }
+
+    private boolean matches(int stringMarker, int stringCount, String value) throws IOException {
+        int type = (stringMarker & 0xf0) >> 4;
+        if (((type != 5) && (type != 6)) || (stringCount != value.length())) {
+            return false;
+        }
+        for (int i = 0; i < stringCount; i++) {
+            char ch = (type == 5) ? ascii(in.readUnsignedByte()) : in.readChar();
+            if (ch != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes a byte of an ASCII string the way the US-ASCII charset does,
+     * bytes outside of ASCII become the replacement character
+     */
+    private static char ascii(int b) {
+        return (b < 0x80) ? (char) b : '\uFFFD';
+    }
+}
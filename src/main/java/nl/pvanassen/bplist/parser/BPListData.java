@@ -1,6 +1,6 @@
 package nl.pvanassen.bplist.parser;
 
-class BPListData implements BPListElement<byte[]> {
+class BPListData extends AbstractBPListElement<byte[]> {
     private final byte[] value;
     
     BPListData(byte[] value) {
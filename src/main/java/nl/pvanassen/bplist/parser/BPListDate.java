@@ -2,9 +2,9 @@ package nl.pvanassen.bplist.parser;
 
 import java.util.*;
 
-class BPListDate implements BPListElement<Date> {
-    /** Time interval based dates are measured in seconds from 2001-01-01. */
-    private final static long TIMER_INTERVAL_TIMEBASE = new GregorianCalendar(2001, 0, 1, 1, 0, 0).getTimeInMillis();
+class BPListDate extends AbstractBPListElement<Date> {
+    /** Time interval based dates are measured in seconds from 2001-01-01T00:00:00Z. */
+    private final static long TIMER_INTERVAL_TIMEBASE = 978307200000L;
 
     private final Date value;
 
@@ -13,7 +13,15 @@ class BPListDate implements BPListElement<Date> {
      * intervals have no time zone.
      */
     BPListDate(double value) {
-        this.value = new Date(TIMER_INTERVAL_TIMEBASE + ((long) value * 1000L));
+        this.value = toDate(value);
+    }
+
+    /**
+     * @param value Seconds since 1/1/2001
+     * @return Date for the timer interval
+     */
+    static Date toDate(double value) {
+        return new Date(TIMER_INTERVAL_TIMEBASE + ((long) value * 1000L));
     }
 
     @Override
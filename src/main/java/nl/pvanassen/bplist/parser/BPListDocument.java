@@ -0,0 +1,171 @@
+package nl.pvanassen.bplist.parser;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Random access view on a bplist. Objects are decoded on demand using the
+ * offset table from the trailer, so looking up an object deep in a large file
+ * only decodes the objects on the path to it. Not thread safe.
+ *
+ * @author Paul van Assen
+ */
+public class BPListDocument {
+    private final ElementParser parser;
+    private final BPListBuffer in;
+    private final BPListTrailer trailer;
+    private final BPListObjectTable objectTable = new ObjectTable();
+
+    BPListDocument(ElementParser parser, BPListBuffer in, BPListTrailer trailer) {
+        this.parser = parser;
+        this.in = in;
+        this.trailer = trailer;
+    }
+
+    /**
+     * @return Number of objects in the document
+     */
+    public int getObjectCount() {
+        return trailer.getObjectCount();
+    }
+
+    /**
+     * @return Reference of the top level object
+     */
+    public int getTopObjectRef() {
+        return trailer.getTopObject();
+    }
+
+    /**
+     * @return Byte size of object refs in arrays and dicts
+     */
+    public int getObjectRefSize() {
+        return trailer.getObjectRefSize();
+    }
+
+    /**
+     * @return Copy of the offset table, the position of every object in the
+     *         file indexed by object reference
+     * @throws IOException
+     *             If an offset is invalid
+     */
+    public long[] getOffsets() throws IOException {
+        return trailer.readOffsets(in.duplicate());
+    }
+
+    /**
+     * @return The top level object, usually a dict or an array
+     * @throws IOException
+     *             In case of an error
+     */
+    public BPListElement<?> getTopObject() throws IOException {
+        return getObject(trailer.getTopObject());
+    }
+
+    /**
+     * Decodes a single object. Arrays and dicts resolve their children through
+     * this document when their value is asked for.
+     *
+     * @param ref
+     *            Object reference, the index in the offset table
+     * @return Decoded object, null for the null object
+     * @throws IOException
+     *             In case of an error
+     */
+    public BPListElement<?> getObject(int ref) throws IOException {
+        in.seek(trailer.getOffset(in, ref));
+        return parser.parseObject(in, objectTable, trailer.getObjectRefSize());
+    }
+
+    /**
+     * Creates a cursor positioned at the top level object. The cursor reads
+     * from its own position, so it does not disturb this document or other
+     * cursors.
+     *
+     * @return New cursor
+     * @throws IOException
+     *             In case of an error
+     */
+    public BPListCursor cursor() throws IOException {
+        return new BPListCursor(in.duplicate(), trailer);
+    }
+
+    /**
+     * @return List view on all objects, indexed by object reference. Objects
+     *         are decoded on every get.
+     */
+    public BPListObjectTable getObjectTable() {
+        return objectTable;
+    }
+
+    private class ObjectTable extends AbstractList<BPListElement<?>> implements BPListObjectTable, RandomAccess, KeyTable, ValueTable {
+        @Override
+        public int getTopObjectRef() {
+            return trailer.getTopObject();
+        }
+
+        @Override
+        public BPListElement<?> get(int index) {
+            try {
+                return getObject(index);
+            } catch (IOException e) {
+                throw new RuntimeException("Error decoding object " + index, e);
+            }
+        }
+
+        @Override
+        public String getKey(int ref) {
+            try {
+                in.seek(trailer.getOffset(in, ref));
+                return parser.parseKey(in, this, trailer.getObjectRefSize());
+            } catch (IOException e) {
+                throw new RuntimeException("Error decoding key " + ref, e);
+            }
+        }
+
+        @Override
+        public long getLong(int ref) {
+            try {
+                in.seek(trailer.getOffset(in, ref));
+                return parser.parseLongValue(in);
+            } catch (IOException e) {
+                throw new RuntimeException("Error decoding object " + ref, e);
+            }
+        }
+
+        @Override
+        public double getDouble(int ref) {
+            try {
+                in.seek(trailer.getOffset(in, ref));
+                return parser.parseDoubleValue(in);
+            } catch (IOException e) {
+                throw new RuntimeException("Error decoding object " + ref, e);
+            }
+        }
+
+        @Override
+        public boolean getBoolean(int ref) {
+            try {
+                in.seek(trailer.getOffset(in, ref));
+                return parser.parseBooleanValue(in);
+            } catch (IOException e) {
+                throw new RuntimeException("Error decoding object " + ref, e);
+            }
+        }
+
+        @Override
+        public int getUid(int ref) {
+            try {
+                in.seek(trailer.getOffset(in, ref));
+                return parser.parseUidValue(in);
+            } catch (IOException e) {
+                throw new RuntimeException("Error decoding object " + ref, e);
+            }
+        }
+
+        @Override
+        public int size() {
+            return trailer.getObjectCount();
+        }
+    }
+}
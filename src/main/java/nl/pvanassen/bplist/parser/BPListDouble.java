@@ -1,6 +1,6 @@
 package nl.pvanassen.bplist.parser;
 
-class BPListDouble implements BPListElement<Double> {
+class BPListDouble extends AbstractBPListElement<Double> {
     private final double value;
     
     BPListDouble(double value) {
@@ -15,4 +15,14 @@ class BPListDouble implements BPListElement<Double> {
     public Double getValue() {
         return value;
     }
+
+    @Override
+    public long asLong() {
+        return (long) value;
+    }
+
+    @Override
+    public double asDouble() {
+        return value;
+    }
 }
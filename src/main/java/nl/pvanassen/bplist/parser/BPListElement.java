@@ -17,4 +17,32 @@ public interface BPListElement<T> {
      * @return Actual value
      */
     T getValue();
+
+    /**
+     * @return Value of an integer, or of a real cast to long, without boxing
+     * @throws IllegalStateException
+     *             If the element is no integer or real
+     */
+    long asLong();
+
+    /**
+     * @return Value of an integer or real, without boxing
+     * @throws IllegalStateException
+     *             If the element is no integer or real
+     */
+    double asDouble();
+
+    /**
+     * @return Value of a boolean, without boxing
+     * @throws IllegalStateException
+     *             If the element is no boolean
+     */
+    boolean asBoolean();
+
+    /**
+     * @return Value of a uid, without boxing
+     * @throws IllegalStateException
+     *             If the element is no uid
+     */
+    int asUid();
 }
@@ -1,6 +1,6 @@
 package nl.pvanassen.bplist.parser;
 
-class BPListFloat implements BPListElement<Float> {
+class BPListFloat extends AbstractBPListElement<Float> {
     private final float value;
     
     BPListFloat(float value) {
@@ -15,4 +15,14 @@ class BPListFloat implements BPListElement<Float> {
     public Float getValue() {
         return value;
     }
+
+    @Override
+    public long asLong() {
+        return (long) value;
+    }
+
+    @Override
+    public double asDouble() {
+        return value;
+    }
 }
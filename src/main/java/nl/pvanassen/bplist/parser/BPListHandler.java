@@ -0,0 +1,111 @@
+package nl.pvanassen.bplist.parser;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Receives the contents of a bplist as a stream of events, depth first from
+ * the top level object. See {@link BPListWalker}.
+ * <p>
+ * Every dict entry is reported as a {@link #key(String)} event followed by
+ * the events of its value. Entries and array elements are reported in the
+ * order they are stored in the file.
+ *
+ * @author Paul van Assen
+ */
+public interface BPListHandler {
+    /**
+     * Called once before any other event
+     *
+     * @throws IOException To stop the walk
+     */
+    void startDocument() throws IOException;
+
+    /**
+     * Called once after all other events
+     *
+     * @throws IOException To stop the walk
+     */
+    void endDocument() throws IOException;
+
+    /**
+     * @param count Number of entries that follow
+     * @throws IOException To stop the walk
+     */
+    void startDict(int count) throws IOException;
+
+    /**
+     * @param key Key of the entry whose value follows
+     * @throws IOException To stop the walk
+     */
+    void key(String key) throws IOException;
+
+    /**
+     * @throws IOException To stop the walk
+     */
+    void endDict() throws IOException;
+
+    /**
+     * @param count Number of elements that follow
+     * @throws IOException To stop the walk
+     */
+    void startArray(int count) throws IOException;
+
+    /**
+     * @throws IOException To stop the walk
+     */
+    void endArray() throws IOException;
+
+    /**
+     * @throws IOException To stop the walk
+     */
+    void nullValue() throws IOException;
+
+    /**
+     * @param value Boolean value
+     * @throws IOException To stop the walk
+     */
+    void booleanValue(boolean value) throws IOException;
+
+    /**
+     * @param value Integer value
+     * @throws IOException To stop the walk
+     */
+    void longValue(long value) throws IOException;
+
+    /**
+     * @param value 4 byte real value
+     * @throws IOException To stop the walk
+     */
+    void floatValue(float value) throws IOException;
+
+    /**
+     * @param value 8 byte real value
+     * @throws IOException To stop the walk
+     */
+    void doubleValue(double value) throws IOException;
+
+    /**
+     * @param value ASCII or unicode string
+     * @throws IOException To stop the walk
+     */
+    void string(String value) throws IOException;
+
+    /**
+     * @param value Bytes of the data object
+     * @throws IOException To stop the walk
+     */
+    void data(byte[] value) throws IOException;
+
+    /**
+     * @param value Date value
+     * @throws IOException To stop the walk
+     */
+    void date(Date value) throws IOException;
+
+    /**
+     * @param value Uid value
+     * @throws IOException To stop the walk
+     */
+    void uid(int value) throws IOException;
+}
@@ -1,6 +1,6 @@
 package nl.pvanassen.bplist.parser;
 
-class BPListLong implements BPListElement<Long> {
+class BPListLong extends AbstractBPListElement<Long> {
     private final long value;
     
     BPListLong(long value) {
@@ -15,4 +15,14 @@ class BPListLong implements BPListElement<Long> {
     public Long getValue() {
         return value;
     }
+
+    @Override
+    public long asLong() {
+        return value;
+    }
+
+    @Override
+    public double asDouble() {
+        return value;
+    }
 }
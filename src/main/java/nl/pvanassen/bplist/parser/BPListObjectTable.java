@@ -0,0 +1,17 @@
+package nl.pvanassen.bplist.parser;
+
+import java.util.List;
+
+/**
+ * Object table of a parsed bplist, indexed by object reference. Knows which
+ * object the trailer names as the top level object, which is not always the
+ * first one.
+ *
+ * @author Paul van Assen
+ */
+public interface BPListObjectTable extends List<BPListElement<?>> {
+    /**
+     * @return Reference of the top level object
+     */
+    int getTopObjectRef();
+}
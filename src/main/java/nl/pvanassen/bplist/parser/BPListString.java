@@ -1,28 +1,194 @@
 package nl.pvanassen.bplist.parser;
 
-import java.io.UnsupportedEncodingException;
+import java.io.*;
 
-class BPListString implements BPListElement<String> {
-    private final String value;
+/**
+ * Holder for a binary PList string. The string keeps a reference to the bytes
+ * in the buffer it was parsed from, and is only decoded the first time its
+ * value is asked for. Length, characters, hash code and comparisons are read
+ * from the bytes directly, so most strings never need to be decoded.
+ * <p>
+ * The buffer may be shared with other strings, the parser and other threads.
+ * Strings only make absolute reads, which leave its position unchanged.
+ */
+public final class BPListString extends AbstractBPListElement<String> implements CharSequence {
+    private final BPListBuffer in;
+    private final long offset;
+    private final int length;
     private final BPListType type;
-    
-    BPListString(char[] buf) {
-        this.value = new String(buf);
-        this.type = BPListType.UNICODE_STRING;
-    }
-    
-    BPListString(byte[] buf) throws UnsupportedEncodingException {
-        this.value = new String(buf, "ASCII");
-        this.type = BPListType.ASCII_STRING;
+    private String value;
+    private int hash;
+
+    /**
+     * @param in
+     *            Buffer holding the string
+     * @param offset
+     *            Position of the first character
+     * @param length
+     *            Number of characters
+     * @param type
+     *            ASCII_STRING or UNICODE_STRING
+     */
+    BPListString(BPListBuffer in, long offset, int length, BPListType type) {
+        this.in = in.root();
+        this.offset = offset;
+        this.length = length;
+        this.type = type;
     }
-    
+
     @Override
     public BPListType getType() {
         return type;
     }
-    
+
+    /**
+     * @return Decoded string, decoded on the first call only
+     */
     @Override
     public String getValue() {
-        return value;
+        String decoded = value;
+        if (decoded == null) {
+            try {
+                decoded = (type == BPListType.UNICODE_STRING) ? in.getUtf16(offset, length) : in.getAscii(offset, length);
+            } catch (IOException e) {
+                throw new RuntimeException("Error decoding string at " + offset, e);
+            }
+            // Racing threads decode equal strings, strings are safe to publish
+            value = decoded;
+        }
+        return decoded;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if ((index < 0) || (index >= length)) {
+            throw new StringIndexOutOfBoundsException(index);
+        }
+        String decoded = value;
+        if (decoded != null) {
+            return decoded.charAt(index);
+        }
+        try {
+            return decode(index);
+        } catch (IOException e) {
+            throw new RuntimeException("Error decoding string at " + offset, e);
+        }
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return getValue().subSequence(start, end);
+    }
+
+    /**
+     * Compares the characters with a string without decoding them
+     *
+     * @param other
+     *            String to compare with
+     * @return True if the characters are equal
+     */
+    public boolean contentEquals(CharSequence other) {
+        if (other.length() != length) {
+            return false;
+        }
+        String decoded = value;
+        if (decoded != null) {
+            return decoded.contentEquals(other);
+        }
+        try {
+            boolean equal = true;
+            for (int i = 0; equal && (i < length); i++) {
+                equal = decode(i) == other.charAt(i);
+            }
+            return equal;
+        } catch (IOException e) {
+            throw new RuntimeException("Error decoding string at " + offset, e);
+        }
+    }
+
+    /**
+     * Strings are equal when their characters are. Strings of the same
+     * encoding in the same buffer are compared byte for byte.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof BPListString)) {
+            return false;
+        }
+        BPListString other = (BPListString) obj;
+        if ((other.length != length) || (other.hashCode() != hashCode())) {
+            return false;
+        }
+        if ((other.in != in) || (other.type != type)) {
+            return other.contentEquals(getValue());
+        }
+        long bytes = (type == BPListType.UNICODE_STRING) ? 2L * length : length;
+        try {
+            boolean equal = true;
+            for (long i = 0; equal && (i < bytes); i++) {
+                equal = in.getUnsignedByte(offset + i) == in.getUnsignedByte(other.offset + i);
+            }
+            return equal;
+        } catch (IOException e) {
+            throw new RuntimeException("Error decoding string at " + offset, e);
+        }
+    }
+
+    /**
+     * @return Same hash code as the decoded string, computed from the bytes
+     */
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if ((h == 0) && (length > 0)) {
+            String decoded = value;
+            if (decoded != null) {
+                h = decoded.hashCode();
+            } else {
+                try {
+                    for (int i = 0; i < length; i++) {
+                        h = (31 * h) + decode(i);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException("Error decoding string at " + offset, e);
+                }
+            }
+            hash = h;
+        }
+        return h;
+    }
+
+    /**
+     * @return Decoded string
+     */
+    @Override
+    public String toString() {
+        return getValue();
+    }
+
+    /**
+     * Character at an index, read from the bytes
+     */
+    private char decode(int index) throws IOException {
+        if (type == BPListType.UNICODE_STRING) {
+            return in.getChar(offset + (2L * index));
+        }
+        return ascii(in.getUnsignedByte(offset + index));
+    }
+
+    /**
+     * Decodes a byte of an ASCII string the way the US-ASCII charset does,
+     * bytes outside of ASCII become the replacement character
+     */
+    private static char ascii(int b) {
+        return (b < 0x80) ? (char) b : '\uFFFD';
     }
 }
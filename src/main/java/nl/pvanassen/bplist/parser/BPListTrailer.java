@@ -0,0 +1,151 @@
+package nl.pvanassen.bplist.parser;
+
+import java.io.IOException;
+
+/**
+ * Trailer of a bplist, the last 32 bytes of the file.
+ * <ul>
+ * <li>6 bytes unused</li>
+ * <li>1 byte size of offset ints in the offset table</li>
+ * <li>1 byte size of object refs in arrays and dicts</li>
+ * <li>8 bytes number of objects, which is also the number of offsets in the offset table</li>
+ * <li>8 bytes reference of the top level object</li>
+ * <li>8 bytes position of the offset table</li>
+ * </ul>
+ *
+ * @author Paul van Assen
+ */
+final class BPListTrailer {
+    private static final int HEADER_SIZE = 8;
+    private static final int TRAILER_SIZE = 32;
+
+    private final int offsetIntSize;
+    private final int objectRefSize;
+    private final int objectCount;
+    private final int topObject;
+    private final long offsetTableOffset;
+
+    private BPListTrailer(int offsetIntSize, int objectRefSize, int objectCount, int topObject, long offsetTableOffset) {
+        this.offsetIntSize = offsetIntSize;
+        this.objectRefSize = objectRefSize;
+        this.objectCount = objectCount;
+        this.topObject = topObject;
+        this.offsetTableOffset = offsetTableOffset;
+    }
+
+    /**
+     * Checks the header and reads the trailer
+     *
+     * @param in
+     *            Buffer with the complete bplist
+     * @return Trailer read
+     * @throws IOException
+     *             If the header or trailer is invalid
+     */
+    static BPListTrailer read(BPListBuffer in) throws IOException {
+        if (in.length() < HEADER_SIZE + TRAILER_SIZE) {
+            throw new IOException("parseHeader: File is too short to be a bplist");
+        }
+        // Parse the HEADER
+        // ----------------
+        // magic number ("bplist")
+        // file format version ("00")
+        in.seek(0);
+        int bpli = in.readInt();
+        int st00 = in.readInt();
+        if ((bpli != 0x62706c69) || (st00 != 0x73743030)) {
+            throw new IOException("parseHeader: File does not start with 'bplist00' magic.");
+        }
+
+        // Parse the TRAILER
+        // ----------------
+        in.seek(in.length() - TRAILER_SIZE + 6);
+        int offsetIntSize = in.readUnsignedByte();
+        int objectRefSize = in.readUnsignedByte();
+        long objectCount = in.readLong();
+        long topObject = in.readLong();
+        long offsetTableOffset = in.readLong();
+
+        if ((offsetIntSize < 1) || (offsetIntSize > 8)) {
+            throw new IOException("parseTrailer: illegal offset int size " + offsetIntSize);
+        }
+        if ((objectRefSize < 1) || (objectRefSize > 8)) {
+            throw new IOException("parseTrailer: illegal object ref size " + objectRefSize);
+        }
+        if ((objectCount < 0) || (objectCount > Integer.MAX_VALUE)) {
+            throw new IOException("parseTrailer: unsupported object count " + objectCount);
+        }
+        if ((topObject < 0) || (topObject >= objectCount)) {
+            throw new IOException("parseTrailer: top object " + topObject + " not in object table");
+        }
+        if ((offsetTableOffset < HEADER_SIZE) || (offsetTableOffset + (objectCount * offsetIntSize) > in.length() - TRAILER_SIZE)) {
+            throw new IOException("parseTrailer: offset table at " + offsetTableOffset + " outside of file");
+        }
+        return new BPListTrailer(offsetIntSize, objectRefSize, (int) objectCount, (int) topObject, offsetTableOffset);
+    }
+
+    /**
+     * Reads the position of an object from the offset table
+     *
+     * @param in
+     *            Buffer with the complete bplist
+     * @param ref
+     *            Object reference
+     * @return Position of the object in the file
+     * @throws IOException
+     *             If the reference or the offset is invalid
+     */
+    long getOffset(BPListBuffer in, int ref) throws IOException {
+        if ((ref < 0) || (ref >= objectCount)) {
+            throw new IOException("getOffset: object ref " + ref + " not in object table");
+        }
+        in.seek(offsetTableOffset + ((long) ref * offsetIntSize));
+        long offset = in.readSized(offsetIntSize);
+        if ((offset < HEADER_SIZE) || (offset >= offsetTableOffset)) {
+            throw new IOException("getOffset: offset " + offset + " of object " + ref + " outside of object table");
+        }
+        return offset;
+    }
+
+    /**
+     * Reads the complete offset table
+     *
+     * @param in
+     *            Buffer with the complete bplist
+     * @return Position of every object in the file, indexed by object
+     *         reference
+     * @throws IOException
+     *             If an offset is invalid
+     */
+    long[] readOffsets(BPListBuffer in) throws IOException {
+        long[] offsets = new long[objectCount];
+        in.seek(offsetTableOffset);
+        in.readOffsets(offsets, offsetIntSize);
+        for (int ref = 0; ref < objectCount; ref++) {
+            if ((offsets[ref] < HEADER_SIZE) || (offsets[ref] >= offsetTableOffset)) {
+                throw new IOException("readOffsets: offset " + offsets[ref] + " of object " + ref + " outside of object table");
+            }
+        }
+        return offsets;
+    }
+
+    int getOffsetIntSize() {
+        return offsetIntSize;
+    }
+
+    int getObjectRefSize() {
+        return objectRefSize;
+    }
+
+    int getObjectCount() {
+        return objectCount;
+    }
+
+    int getTopObject() {
+        return topObject;
+    }
+
+    long getOffsetTableOffset() {
+        return offsetTableOffset;
+    }
+}
@@ -15,6 +15,56 @@ public enum BPListType {
     ASCII_STRING,
     UNICODE_STRING,
     UID, 
-    SHORT_DICT, BYTE_DICT, 
-    SHORT_ARRAY, BYTE_ARRAY
+    SHORT_DICT, BYTE_DICT, INT_DICT, LONG_DICT,
+    SHORT_ARRAY, BYTE_ARRAY, INT_ARRAY, LONG_ARRAY;
+
+    /**
+     * @return True for dicts, whatever the width of their object refs
+     */
+    public boolean isDict() {
+        return (this == BYTE_DICT) || (this == SHORT_DICT) || (this == INT_DICT) || (this == LONG_DICT);
+    }
+
+    /**
+     * @return True for arrays, whatever the width of their object refs
+     */
+    public boolean isArray() {
+        return (this == BYTE_ARRAY) || (this == SHORT_ARRAY) || (this == INT_ARRAY) || (this == LONG_ARRAY);
+    }
+
+    /**
+     * @param objectRefSize Byte size of object refs, from the trailer
+     * @return Dict type for the ref size
+     */
+    static BPListType dict(int objectRefSize) {
+        switch (objectRefSize) {
+            case 1:
+                return BYTE_DICT;
+            case 2:
+                return SHORT_DICT;
+            case 3:
+            case 4:
+                return INT_DICT;
+            default:
+                return LONG_DICT;
+        }
+    }
+
+    /**
+     * @param objectRefSize Byte size of object refs, from the trailer
+     * @return Array type for the ref size
+     */
+    static BPListType array(int objectRefSize) {
+        switch (objectRefSize) {
+            case 1:
+                return BYTE_ARRAY;
+            case 2:
+                return SHORT_ARRAY;
+            case 3:
+            case 4:
+                return INT_ARRAY;
+            default:
+                return LONG_ARRAY;
+        }
+    }
 }
@@ -0,0 +1,98 @@
+package nl.pvanassen.bplist.parser;
+
+import java.io.IOException;
+
+/**
+ * Walks a bplist depth first from the top level object and reports its
+ * contents to a {@link BPListHandler}. No elements or collections are
+ * created, the walk reads straight from the document with a
+ * {@link BPListCursor}.
+ *
+ * @author Paul van Assen
+ */
+public class BPListWalker {
+
+    /**
+     * Walks a document from its top level object
+     *
+     * @param document
+     *            Document to walk
+     * @param handler
+     *            Handler receiving the events
+     * @throws IOException
+     *             In case of an error decoding the document, or thrown by the
+     *             handler
+     */
+    public void walk(BPListDocument document, BPListHandler handler) throws IOException {
+        BPListCursor cursor = document.cursor();
+        handler.startDocument();
+        walk(cursor, handler);
+        handler.endDocument();
+    }
+
+    private void walk(BPListCursor cursor, BPListHandler handler) throws IOException {
+        BPListType type = cursor.type();
+        if (type == null) {
+            handler.nullValue();
+            return;
+        }
+        switch (type) {
+            case BYTE_DICT:
+            case SHORT_DICT:
+            case INT_DICT:
+            case LONG_DICT: {
+                int count = cursor.size();
+                handler.startDict(count);
+                for (int i = 0; i < count; i++) {
+                    cursor.moveToKey(i);
+                    handler.key(cursor.stringValue());
+                    cursor.moveToParent();
+                    cursor.moveToChild(i);
+                    walk(cursor, handler);
+                    cursor.moveToParent();
+                }
+                handler.endDict();
+                break;
+            }
+            case BYTE_ARRAY:
+            case SHORT_ARRAY:
+            case INT_ARRAY:
+            case LONG_ARRAY: {
+                int count = cursor.size();
+                handler.startArray(count);
+                for (int i = 0; i < count; i++) {
+                    cursor.moveToChild(i);
+                    walk(cursor, handler);
+                    cursor.moveToParent();
+                }
+                handler.endArray();
+                break;
+            }
+            case BOOLEAN:
+                handler.booleanValue(cursor.booleanValue());
+                break;
+            case LONG:
+                handler.longValue(cursor.longValue());
+                break;
+            case FLOAT:
+                handler.floatValue((float) cursor.doubleValue());
+                break;
+            case DOUBLE:
+                handler.doubleValue(cursor.doubleValue());
+                break;
+            case DATE:
+                handler.date(cursor.dateValue());
+                break;
+            case DATA:
+                handler.data(cursor.dataValue());
+                break;
+            case ASCII_STRING:
+            case UNICODE_STRING:
+                handler.string(cursor.stringValue());
+                break;
+            case UID:
+                handler.uid(cursor.uidValue());
+                break;
+        }
+    }
+}
@@ -1,30 +1,62 @@
 package nl.pvanassen.bplist.parser;
 
 import java.io.*;
-import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.apache.commons.io.IOUtils;
 import org.slf4j.*;
 
 /**
  * Parser for reading the bplist
- * 
+ *
  * @author Paul van Assen
  */
 public class ElementParser {
+    /**
+     * Files are mapped in segments of 1 GB
+     */
+    private static final int SEGMENT_SHIFT = 30;
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    private static final int READ_CHUNK_SIZE = 64 * 1024;
     private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final KeyInterner keyInterner;
+
+    /**
+     * Creates a parser that decodes every dict key separately
+     */
+    public ElementParser() {
+        this(null);
+    }
+
+    /**
+     * Creates a parser that looks up dict keys in an interner before decoding
+     * them. The interner may be shared with other parsers.
+     *
+     * @param keyInterner Interner for dict keys, or null for none
+     */
+    public ElementParser(KeyInterner keyInterner) {
+        this.keyInterner = keyInterner;
+    }
 
     /**
      * Parse object table with a random access file. This method will not close
      * the file for you.
      *
      * @param file File object
-     * @return List of objects parsed
+     * @return List of objects parsed, with the top level object ref
      * @throws IOException
      *             In case of an error
      */
-    public List<BPListElement<?>> parseObjectTable(File file) throws IOException {
+    public BPListObjectTable parseObjectTable(File file) throws IOException {
+        if (file.length() > MAX_ARRAY_SIZE) {
+            // Too big to read into a single array
+            return parseObjectTableMapped(file);
+        }
         RandomAccessFile raf = null;
         try {
             raf = new RandomAccessFile(file, "r");
@@ -34,52 +66,272 @@ public class ElementParser {
         }
     }
 
+    /**
+     * Parse object table from a memory mapped file. The objects are decoded
+     * straight from the mapping, so the heap needed does not grow with the
+     * size of the file.
+     *
+     * @param file File object
+     * @return List of objects parsed, with the top level object ref
+     * @throws IOException
+     *             In case of an error
+     */
+    public BPListObjectTable parseObjectTableMapped(File file) throws IOException {
+        return parseObjectTable(map(file));
+    }
+
+    /**
+     * Parse object table from a bplist held in memory. The bytes are decoded in
+     * place, the array is not copied.
+     *
+     * @param buf
+     *            Array holding the bplist
+     * @param offset
+     *            Position of the bplist in the array
+     * @param length
+     *            Number of bytes of the bplist
+     * @return List of objects parsed, with the top level object ref
+     * @throws IOException
+     *             In case of an error
+     */
+    public BPListObjectTable parseObjectTable(byte[] buf, int offset, int length) throws IOException {
+        return parseObjectTable(new BPListBuffer(ByteBuffer.wrap(buf, offset, length)));
+    }
+
+    /**
+     * Parse object table from the remaining bytes of a buffer. The bytes are
+     * decoded in place through a slice, the position of the buffer is not
+     * changed.
+     *
+     * @param buffer
+     *            Buffer holding the bplist between its position and limit
+     * @return List of objects parsed, with the top level object ref
+     * @throws IOException
+     *             In case of an error
+     */
+    public BPListObjectTable parseObjectTable(ByteBuffer buffer) throws IOException {
+        return parseObjectTable(new BPListBuffer(buffer));
+    }
+
+    /**
+     * Parse object table from a stream. The stream is read to the end into a
+     * single buffer, the stream is not closed.
+     *
+     * @param stream
+     *            Stream with the bplist
+     * @return List of objects parsed, with the top level object ref
+     * @throws IOException
+     *             In case of an error
+     */
+    public BPListObjectTable parseObjectTable(InputStream stream) throws IOException {
+        return parseObjectTable(readFully(stream));
+    }
+
+    /**
+     * Parse object table from a memory mapped file on several threads. The
+     * offset table is split in ranges of objects that are decoded
+     * concurrently. All objects are decoded before this method returns.
+     *
+     * @param file
+     *            File object
+     * @param executor
+     *            Executor to decode on, preferably a {@link ForkJoinPool}
+     * @return List of objects parsed, with the top level object ref
+     * @throws IOException
+     *             In case of an error
+     */
+    public BPListObjectTable parseObjectTable(File file, ExecutorService executor) throws IOException {
+        return new ParallelDecoder(this, map(file)).decode(executor);
+    }
+
+    /**
+     * Parse object table from the remaining bytes of a buffer on several
+     * threads. The offset table is split in ranges of objects that are decoded
+     * concurrently. All objects are decoded before this method returns.
+     *
+     * @param buffer
+     *            Buffer holding the bplist between its position and limit
+     * @param executor
+     *            Executor to decode on, preferably a {@link ForkJoinPool}
+     * @return List of objects parsed, with the top level object ref
+     * @throws IOException
+     *             In case of an error
+     */
+    public BPListObjectTable parseObjectTable(ByteBuffer buffer, ExecutorService executor) throws IOException {
+        return new ParallelDecoder(this, new BPListBuffer(buffer)).decode(executor);
+    }
+
+    /**
+     * Opens a bplist held in memory for random access. The bytes are decoded
+     * in place through a slice, the position of the buffer is not changed.
+     *
+     * @param buffer
+     *            Buffer holding the bplist between its position and limit
+     * @return Document for looking up objects by reference
+     * @throws IOException
+     *             In case of an error
+     */
+    public BPListDocument parseDocument(ByteBuffer buffer) throws IOException {
+        BPListBuffer in = new BPListBuffer(buffer);
+        return new BPListDocument(this, in, BPListTrailer.read(in));
+    }
+
+    /**
+     * Opens a memory mapped file for random access. Only the trailer is read,
+     * objects are decoded when they are asked for using the offset table.
+     *
+     * @param file File object
+     * @return Document for looking up objects by reference
+     * @throws IOException
+     *             In case of an error
+     */
+    public BPListDocument parseDocument(File file) throws IOException {
+        BPListBuffer in = map(file);
+        return new BPListDocument(this, in, BPListTrailer.read(in));
+    }
+
+    /**
+     * Reads a stream to the end into an array of exactly its length. What the
+     * stream says is available is read straight into that array. When the
+     * stream has more, the rest is read in chunks that are copied into the
+     * array once at the end.
+     */
+    private ByteBuffer readFully(InputStream stream) throws IOException {
+        byte[] first = new byte[Math.min(stream.available(), MAX_ARRAY_SIZE)];
+        int length = IOUtils.read(stream, first);
+        if (length < first.length) {
+            return ByteBuffer.wrap(Arrays.copyOf(first, length));
+        }
+        int next = stream.read();
+        if (next == -1) {
+            return ByteBuffer.wrap(first);
+        }
+        List<byte[]> chunks = new ArrayList<>();
+        byte[] chunk = new byte[READ_CHUNK_SIZE];
+        chunk[0] = (byte) next;
+        int filled = 1;
+        long total = length + 1L;
+        int read;
+        while ((read = stream.read(chunk, filled, chunk.length - filled)) != -1) {
+            filled += read;
+            total += read;
+            if (total > MAX_ARRAY_SIZE) {
+                throw new IOException("readFully: stream is longer than " + MAX_ARRAY_SIZE + " bytes");
+            }
+            if (filled == chunk.length) {
+                chunks.add(chunk);
+                chunk = new byte[READ_CHUNK_SIZE];
+                filled = 0;
+            }
+        }
+        byte[] buf = Arrays.copyOf(first, (int) total);
+        int position = length;
+        for (byte[] full : chunks) {
+            System.arraycopy(full, 0, buf, position, full.length);
+            position += full.length;
+        }
+        System.arraycopy(chunk, 0, buf, position, filled);
+        return ByteBuffer.wrap(buf);
+    }
+
+    private BPListBuffer map(File file) throws IOException {
+        return map(file, SEGMENT_SHIFT);
+    }
+
+    /**
+     * Maps a file in segments of 2^segmentShift bytes, so files larger than
+     * 2 GB can be mapped as well
+     */
+    static BPListBuffer map(File file, int segmentShift) throws IOException {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            long size = channel.size();
+            long segmentSize = 1L << segmentShift;
+            ByteBuffer[] segments = new ByteBuffer[(int) Math.max(1, ((size + segmentSize) - 1) >>> segmentShift)];
+            for (int i = 0; i < segments.length; i++) {
+                long position = i * segmentSize;
+                // The mapping stays valid after the channel is closed
+                segments[i] = channel.map(MapMode.READ_ONLY, position, Math.min(segmentSize, size - position));
+            }
+            return new BPListBuffer(segments, segmentShift);
+        } finally {
+            IOUtils.closeQuietly(channel);
+        }
+    }
+
     /**
      * Parse object table with a random access file. This method will not close
      * the file for you.
      *
      * @param raf
      *            Random access file
-     * @return List of objects parsed
+     * @return List of objects parsed, with the top level object ref
      * @throws IOException
      *             In case of an error
      */
-    private List<BPListElement<?>> parseObjectTable(RandomAccessFile raf) throws IOException {
+    private BPListObjectTable parseObjectTable(RandomAccessFile raf) throws IOException {
+        byte[] buf = new byte[(int) raf.length()];
+        raf.readFully(buf);
+        return parseObjectTable(new BPListBuffer(ByteBuffer.wrap(buf)));
+    }
 
-        // Parse the HEADER
-        // ----------------
-        // magic number ("bplist")
-        // file format version ("00")
-        int bpli = raf.readInt();
-        int st00 = raf.readInt();
-        if ((bpli != 0x62706c69) || (st00 != 0x73743030)) {
-            throw new IOException("parseHeader: File does not start with 'bplist00' magic.");
+    /**
+     * Parse object table from the complete contents of a bplist. Only the
+     * marker, offset and refs of every object are read, the elements are
+     * created when the list is accessed.
+     *
+     * @param in
+     *            Buffer positioned anywhere
+     * @return List of objects parsed, indexed by object reference
+     * @throws IOException
+     *             In case of an error
+     */
+    BPListObjectTable parseObjectTable(BPListBuffer in) throws IOException {
+        BPListTrailer trailer = BPListTrailer.read(in);
+        int objectCount = trailer.getObjectCount();
+        byte[] markers = new byte[objectCount];
+        long[] offsets = trailer.readOffsets(in);
+        int[] refIndex = new int[objectCount + 1];
+
+        // First pass: markers and the number of refs per object
+        long refCount = 0;
+        for (int ref = 0; ref < objectCount; ref++) {
+            in.seek(offsets[ref]);
+            int marker = in.readUnsignedByte();
+            markers[ref] = (byte) marker;
+            int type = (marker & 0xf0) >> 4;
+            if ((type == 10) || (type == 13)) {
+                int count = marker & 0xf;
+                if (count == 15) {
+                    count = readCount(in);
+                }
+                refCount += (type == 13) ? 2L * count : count;
+                if (refCount > Integer.MAX_VALUE) {
+                    throw new IOException("parseObjectTable: too many object refs");
+                }
+            }
+            refIndex[ref + 1] = (int) refCount;
         }
 
-        // Parse the TRAILER
-        // ----------------
-        // byte size of offset ints in offset table
-        // byte size of object refs in arrays and dicts
-        // number of offsets in offset table (also is number of objects)
-        // element # in offset table which is top level object
-        raf.seek(raf.length() - 32);
-        raf.readLong();
-        // count of object refs in arrays and dicts
-        int refCount = (int) raf.readLong();
-        raf.readLong();
-        // element # in offset table which is top level object
-        int topLevelOffset = (int) raf.readLong();
-        raf.seek(8);
-
-        // Read everything in memory hmmmm
-        byte[] buf = new byte[topLevelOffset - 8];
-        raf.readFully(buf);
-        ByteArrayInputStream stream = new ByteArrayInputStream(buf);
-
-        return parseObjectTable(new DataInputStream(stream), refCount);
+        // Second pass: the refs of arrays and dicts
+        RefArray refs = RefArray.allocate(trailer.getObjectRefSize(), (int) refCount);
+        for (int ref = 0; ref < objectCount; ref++) {
+            int count = refIndex[ref + 1] - refIndex[ref];
+            if (count > 0) {
+                in.seek(offsets[ref] + 1);
+                if ((markers[ref] & 0xf) == 15) {
+                    readCount(in);
+                }
+                refs.read(in, refIndex[ref], count);
+            }
+        }
+        return new ObjectTable(this, in, trailer.getTopObject(), trailer.getObjectRefSize(), markers, offsets, refIndex, refs);
     }
 
     /**
+     * Decodes the object starting at the current position.
+     * <p>
      * Object Formats (marker byte followed by additional info in some cases)
      * <ul>
      * <li>null 0000 0000</li>
@@ -102,126 +354,220 @@ public class ElementParser {
      * <li>1110 xxxx // unused</li>
      * <li>1111 xxxx // unused</li>
      * </ul>
+     *
+     * @param in
+     *            Buffer positioned at the marker of the object
+     * @param objectTable
+     *            Object table arrays and dicts resolve their references with
+     * @param objectRefSize
+     *            Byte size of object refs in arrays and dicts
+     * @return Decoded object, null for the null object
+     * @throws IOException
+     *             In case of an error
      */
-    private List<BPListElement<?>> parseObjectTable(DataInputStream in, int refCount) throws IOException {
-        List<BPListElement<?>> objectTable = new LinkedList<BPListElement<?>>();
-        int marker;
-        while ((marker = in.read()) != -1) {
-            // System.err.println("parseObjectTable marker=" +
-            // Integer.toBinaryString(marker)+" 0x"+Integer.toHexString(marker)+" @0x"+Long.toHexString(getPosition()));
-            switch ((marker & 0xf0) >> 4) {
-                case 0: {
-                    parseBoolean(marker & 0xf, objectTable);
-                    break;
-                }
-                case 1: {
-                    int count = 1 << (marker & 0xf);
-                    parseInt(in, count, objectTable);
-                    break;
-                }
-                case 2: {
-                    int count = 1 << (marker & 0xf);
-                    parseReal(in, count, objectTable);
-                    break;
-                }
-                case 3: {
-                    switch (marker & 0xf) {
-                        case 3:
-                            parseDate(in, objectTable);
-                            break;
-                        default:
-                            throw new IOException("parseObjectTable: illegal marker " + Integer.toBinaryString(marker));
-                    }
-                    break;
-                }
-                case 4: {
-                    int count = marker & 0xf;
-                    if (count == 15) {
-                        count = readCount(in);
-                    }
-                    parseData(in, count, objectTable);
-                    break;
-                }
-                case 5: {
-                    int count = marker & 0xf;
-                    if (count == 15) {
-                        count = readCount(in);
-                    }
-                    parseAsciiString(in, count, objectTable);
-                    break;
-                }
-                case 6: {
-                    int count = marker & 0xf;
-                    if (count == 15) {
-                        count = readCount(in);
-                    }
-                    parseUnicodeString(in, count, objectTable);
-                    break;
-                }
-                case 7: {
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("parseObjectTable: illegal marker " + Integer.toBinaryString(marker));
-                    }
-                    return objectTable;
-                    // throw new
-                    // IOException("parseObjectTable: illegal marker "+Integer.toBinaryString(marker));
-                    // break;
-                }
-                case 8: {
-                    int count = (marker & 0xf) + 1;
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("uid " + count);
-                    }
-                    parseUID(in, count, objectTable);
-                    break;
-                }
-                case 9: {
-                    throw new IOException("parseObjectTable: illegal marker " + Integer.toBinaryString(marker));
-                    // break;
+    BPListElement<?> parseObject(BPListBuffer in, List<BPListElement<?>> objectTable, int objectRefSize) throws IOException {
+        int marker = in.readUnsignedByte();
+        switch ((marker & 0xf0) >> 4) {
+            case 0: {
+                return parseBoolean(marker & 0xf);
+            }
+            case 1: {
+                int count = 1 << (marker & 0xf);
+                return parseInt(in, count);
+            }
+            case 2: {
+                int count = 1 << (marker & 0xf);
+                return parseReal(in, count);
+            }
+            case 3: {
+                switch (marker & 0xf) {
+                    case 3:
+                        return parseDate(in);
+                    default:
+                        throw new IOException("parseObject: illegal marker " + Integer.toBinaryString(marker));
                 }
-                case 10: {
-                    int count = marker & 0xf;
-                    if (count == 15) {
-                        count = readCount(in);
-                    }
-                    if (refCount > 255) {
-                        parseShortArray(in, count, objectTable);
-                    } else {
-                        parseByteArray(in, count, objectTable);
-                    }
-                    break;
+            }
+            case 4: {
+                int count = marker & 0xf;
+                if (count == 15) {
+                    count = readCount(in);
                 }
-                case 11: {
-                    throw new IOException("parseObjectTable: illegal marker " + Integer.toBinaryString(marker));
-                    // break;
+                return parseData(in, count);
+            }
+            case 5: {
+                int count = marker & 0xf;
+                if (count == 15) {
+                    count = readCount(in);
                 }
-                case 12: {
-                    throw new IOException("parseObjectTable: illegal marker " + Integer.toBinaryString(marker));
-                    // break;
+                return parseAsciiString(in, count);
+            }
+            case 6: {
+                int count = marker & 0xf;
+                if (count == 15) {
+                    count = readCount(in);
                 }
-                case 13: {
-                    int count = marker & 0xf;
-                    if (count == 15) {
-                        count = readCount(in);
-                    }
-                    if (refCount > 256) {
-                        parseShortDict(in, count, objectTable);
-                    } else {
-                        parseByteDict(in, count, objectTable);
-                    }
-                    break;
+                return parseUnicodeString(in, count);
+            }
+            case 8: {
+                int count = (marker & 0xf) + 1;
+                if (logger.isDebugEnabled()) {
+                    logger.debug("uid " + count);
                 }
-                case 14: {
-                    throw new IOException("parseObjectTable: illegal marker " + Integer.toBinaryString(marker));
-                    // break;
+                return parseUID(in, count);
+            }
+            case 10: {
+                int count = marker & 0xf;
+                if (count == 15) {
+                    count = readCount(in);
                 }
-                case 15: {
-                    throw new IOException("parseObjectTable: illegal marker " + Integer.toBinaryString(marker));
-                    // break;
+                return parseArray(in, count, objectTable, objectRefSize);
+            }
+            case 13: {
+                int count = marker & 0xf;
+                if (count == 15) {
+                    count = readCount(in);
                 }
+                return parseDict(in, count, objectTable, objectRefSize);
             }
+            default: {
+                throw new IOException("parseObject: illegal marker " + Integer.toBinaryString(marker));
+            }
+        }
+    }
+
+    /**
+     * Decodes a dict key straight to a string. Keys are looked up in the key
+     * interner, if there is one, before decoding them.
+     *
+     * @param in
+     *            Buffer positioned at the marker of the key
+     * @param objectTable
+     *            Object table for keys that are no strings
+     * @param objectRefSize
+     *            Byte size of object refs in arrays and dicts
+     * @return Decoded key
+     * @throws IOException
+     *             In case of an error
+     */
+    String parseKey(BPListBuffer in, List<BPListElement<?>> objectTable, int objectRefSize) throws IOException {
+        long start = in.position();
+        int marker = in.readUnsignedByte();
+        int type = (marker & 0xf0) >> 4;
+        if ((keyInterner == null) || ((type != 5) && (type != 6))) {
+            in.seek(start);
+            return parseObject(in, objectTable, objectRefSize).getValue().toString();
+        }
+        int count = marker & 0xf;
+        if (count == 15) {
+            count = readCount(in);
+        }
+        return keyInterner.intern(in, type == 6, count);
+    }
+
+    /**
+     * Reads an integer or real as a long, without creating an element
+     *
+     * @param in
+     *            Buffer positioned at the marker of the object
+     * @return Value, reals are cast to long
+     * @throws IOException
+     *             In case of an error
+     */
+    long parseLongValue(BPListBuffer in) throws IOException {
+        int marker = in.readUnsignedByte();
+        switch ((marker & 0xf0) >> 4) {
+            case 1:
+                return readIntValue(in, 1 << (marker & 0xf));
+            case 2:
+                return (long) readRealValue(in, 1 << (marker & 0xf));
+            default:
+                throw new IllegalStateException("Not a number: marker " + Integer.toBinaryString(marker));
+        }
+    }
+
+    /**
+     * Reads an integer or real as a double, without creating an element
+     *
+     * @param in
+     *            Buffer positioned at the marker of the object
+     * @return Value
+     * @throws IOException
+     *             In case of an error
+     */
+    double parseDoubleValue(BPListBuffer in) throws IOException {
+        int marker = in.readUnsignedByte();
+        switch ((marker & 0xf0) >> 4) {
+            case 1:
+                return readIntValue(in, 1 << (marker & 0xf));
+            case 2:
+                return readRealValue(in, 1 << (marker & 0xf));
+            default:
+                throw new IllegalStateException("Not a number: marker " + Integer.toBinaryString(marker));
+        }
+    }
+
+    /**
+     * Reads a boolean, without creating an element
+     *
+     * @param in
+     *            Buffer positioned at the marker of the object
+     * @return Value
+     * @throws IOException
+     *             In case of an error
+     */
+    boolean parseBooleanValue(BPListBuffer in) throws IOException {
+        int marker = in.readUnsignedByte();
+        if ((marker != 0x08) && (marker != 0x09)) {
+            throw new IllegalStateException("Not a boolean: marker " + Integer.toBinaryString(marker));
+        }
+        return marker == 0x09;
+    }
+
+    /**
+     * Reads a uid, without creating an element
+     *
+     * @param in
+     *            Buffer positioned at the marker of the object
+     * @return Value
+     * @throws IOException
+     *             In case of an error
+     */
+    int parseUidValue(BPListBuffer in) throws IOException {
+        int marker = in.readUnsignedByte();
+        if (((marker & 0xf0) >> 4) != 8) {
+            throw new IllegalStateException("Not a uid: marker " + Integer.toBinaryString(marker));
+        }
+        return readUidValue(in, (marker & 0xf) + 1);
+    }
+
+    /**
+     * Reads the value of a uid of 1 to 4 bytes, sign extended like a
+     * BigInteger of the bytes. Shared with {@link BPListCursor}.
+     */
+    static int readUidValue(BPListBuffer in, int count) throws IOException {
+        if (count > 4) {
+            throw new IOException("parseUID: unsupported byte count: " + count);
+        }
+        long value = in.readSized(count);
+        return (int) ((value << (64 - (8 * count))) >> (64 - (8 * count)));
+    }
+
+    private static long readIntValue(BPListBuffer in, int count) throws IOException {
+        if (count > 8) {
+            throw new IOException("parseInt: unsupported byte count: " + count);
+        }
+        return in.readSized(count);
+    }
+
+    private static double readRealValue(BPListBuffer in, int count) throws IOException {
+        switch (count) {
+            case 4:
+                return in.readFloat();
+            case 8:
+                return in.readDouble();
+            default:
+                throw new IOException("parseReal: unsupported byte count:" + count);
         }
-        return objectTable;
     }
 
     /**
@@ -229,7 +575,7 @@ public class ElementParser {
      * the following scheme:
      * int 0001 nnnn ... // # of bytes is 2^nnnn, big-endian bytes
      */
-    private int readCount(DataInputStream in) throws IOException {
+    static int readCount(BPListBuffer in) throws IOException {
         int marker = in.read();
         if (marker == -1) {
             throw new IOException("variableLengthInt: Illegal EOF in marker");
@@ -238,7 +584,10 @@ public class ElementParser {
             throw new IOException("variableLengthInt: Illegal marker " + Integer.toBinaryString(marker));
         }
         int count = 1 << (marker & 0xf);
-        int value = 0;
+        if (count > 8) {
+            throw new IOException("variableLengthInt: unsupported byte count: " + count);
+        }
+        long value = 0;
         for (int i = 0; i < count; i++) {
             int b = in.read();
             if (b == -1) {
@@ -246,27 +595,23 @@ public class ElementParser {
             }
             value = (value << 8) | b;
         }
-        return value;
+        if ((value < 0) || (value > Integer.MAX_VALUE)) {
+            throw new IOException("variableLengthInt: count " + value + " out of range");
+        }
+        return (int) value;
     }
 
     /**
-     * null 0000 0000 bool 0000 1000 // false bool 0000 1001 // true fill 0000
-     * 1111 // fill byte
+     * null 0000 0000 bool 0000 1000 // false bool 0000 1001 // true
      */
-    private void parseBoolean(int primitive, List<BPListElement<?>> objectTable) throws IOException {
+    private BPListElement<?> parseBoolean(int primitive) throws IOException {
         switch (primitive) {
             case 0:
-                objectTable.add(null);
-                break;
+                return null;
             case 8:
-                objectTable.add(BPListBoolean.FALSE);
-                break;
+                return BPListBoolean.FALSE;
             case 9:
-                objectTable.add(BPListBoolean.TRUE);
-                break;
-            case 15:
-                // fill byte: don't add to object table
-                break;
+                return BPListBoolean.TRUE;
             default:
                 throw new IOException("parsePrimitive: illegal primitive " + Integer.toBinaryString(primitive));
         }
@@ -276,34 +621,10 @@ public class ElementParser {
      * array 1010 nnnn [int] objref* // nnnn is count, unless '1111', then int
      * count follows
      */
-    private void parseByteArray(DataInputStream in, int count, List<BPListElement<?>> objectTable) throws IOException {
+    private BPLArray parseArray(BPListBuffer in, int count, List<BPListElement<?>> objectTable, int objectRefSize) throws IOException {
         int[] objref = new int[count];
-
-        for (int i = 0; i < count; i++) {
-            objref[i] = in.readByte() & 0xff;
-            if (objref[i] == -1) {
-                throw new IOException("parseByteArray: illegal EOF in objref*");
-            }
-        }
-
-        objectTable.add(new BPLArray(objectTable, objref, BPListType.BYTE_ARRAY));
-    }
-
-    /**
-     * array 1010 nnnn [int] objref* // nnnn is count, unless '1111', then int
-     * count follows
-     */
-    private void parseShortArray(DataInputStream in, int count, List<BPListElement<?>> objectTable) throws IOException {
-        int[] objref = new int[count];
-
-        for (int i = 0; i < count; i++) {
-            objref[i] = in.readShort() & 0xffff;
-            if (objref[i] == -1) {
-                throw new IOException("parseShortArray: illegal EOF in objref*");
-            }
-        }
-
-        objectTable.add(new BPLArray(objectTable, objref, BPListType.SHORT_ARRAY));
+        in.readRefs(objref, 0, count, objectRefSize);
+        return new BPLArray(objectTable, objref, BPListType.array(objectRefSize));
     }
 
     /*
@@ -311,67 +632,42 @@ public class ElementParser {
      * count follows, followed by bytes
      */
 
-    private void parseData(DataInputStream in, int count, List<BPListElement<?>> objectTable) throws IOException {
+    private BPListData parseData(BPListBuffer in, int count) throws IOException {
         byte[] data = new byte[count];
         in.readFully(data);
-        objectTable.add(new BPListData(data));
-    }
-
-    /**
-     * byte dict 1101 nnnn keyref* objref* // nnnn is less than '1111'
-     */
-    private void parseByteDict(DataInputStream in, int count, List<BPListElement<?>> objectTable) throws IOException {
-        int[]keyref = new int[count];
-        int[]objref = new int[count];
-
-        for (int i = 0; i < count; i++) {
-            keyref[i] = in.readByte() & 0xff;
-        }
-        for (int i = 0; i < count; i++) {
-            objref[i] = in.readByte() & 0xff;
-        }
-        objectTable.add(new BPLDict(objectTable, keyref, objref, BPListType.BYTE_DICT));
+        return new BPListData(data);
     }
 
     /**
-     * short dict 1101 ffff int keyref* objref* // int is count
+     * dict 1101 nnnn [int] keyref* objref* // nnnn is count, unless '1111',
+     * then int count follows
      */
-    private void parseShortDict(DataInputStream in, int count, List<BPListElement<?>> objectTable) throws IOException {
-        int[]keyref = new int[count];
-        int[]objref = new int[count];
-
-        for (int i = 0; i < count; i++) {
-            keyref[i] = in.readShort() & 0xffff;
-        }
-        for (int i = 0; i < count; i++) {
-            objref[i] = in.readShort() & 0xffff;
-        }
-        objectTable.add(new BPLDict(objectTable, keyref, objref, BPListType.SHORT_DICT));
+    private BPLDict parseDict(BPListBuffer in, int count, List<BPListElement<?>> objectTable, int objectRefSize) throws IOException {
+        int[] keyref = new int[count];
+        int[] objref = new int[count];
+        in.readRefs(keyref, 0, count, objectRefSize);
+        in.readRefs(objref, 0, count, objectRefSize);
+        return new BPLDict(objectTable, keyref, objref, BPListType.dict(objectRefSize));
     }
 
     /**
      * string 0101 nnnn [int] ... // ASCII string, nnnn is # of chars, else 1111
      * then int count, then bytes
      */
-    private void parseAsciiString(DataInputStream in, int count, List<BPListElement<?>> objectTable) throws IOException {
-        byte[] buf = new byte[count];
-        in.readFully(buf);
-        objectTable.add(new BPListString(buf));
+    private BPListString parseAsciiString(BPListBuffer in, int count) throws IOException {
+        long offset = in.position();
+        in.seek(offset + count);
+        return new BPListString(in, offset, count, BPListType.ASCII_STRING);
     }
 
-    private void parseUID(DataInputStream in, int count, List<BPListElement<?>> objectTable) throws IOException {
-        if (count > 4) {
-            throw new IOException("parseUID: unsupported byte count: " + count);
-        }
-        byte[] uid = new byte[count];
-        in.readFully(uid);
-        objectTable.add(new BPLUid(new BigInteger(uid).intValue()));
+    private BPLUid parseUID(BPListBuffer in, int count) throws IOException {
+        return new BPLUid(readUidValue(in, count));
     }
 
     /**
      * int 0001 nnnn ... // # of bytes is 2^nnnn, big-endian bytes
      */
-    private void parseInt(DataInputStream in, int count, List<BPListElement<?>> objectTable) throws IOException {
+    private BPListLong parseInt(BPListBuffer in, int count) throws IOException {
         if (count > 8) {
             throw new IOException("parseInt: unsupported byte count: " + count);
         }
@@ -383,20 +679,18 @@ public class ElementParser {
             }
             value = (value << 8) | b;
         }
-        objectTable.add(new BPListLong(value));
+        return new BPListLong(value);
     }
 
     /**
      * real 0010 nnnn ... // # of bytes is 2^nnnn, big-endian bytes
      */
-    private void parseReal(DataInputStream in, int count, List<BPListElement<?>> objectTable) throws IOException {
+    private BPListElement<?> parseReal(BPListBuffer in, int count) throws IOException {
         switch (count) {
             case 4:
-                objectTable.add(new BPListFloat(in.readFloat()));
-                break;
+                return new BPListFloat(in.readFloat());
             case 8:
-                objectTable.add(new BPListDouble(in.readDouble()));
-                break;
+                return new BPListDouble(in.readDouble());
             default:
                 throw new IOException("parseReal: unsupported byte count:" + count);
         }
@@ -413,20 +707,18 @@ public class ElementParser {
     /**
      * date 0011 0011 ... // 8 byte float follows, big-endian bytes
      */
-    private void parseDate(DataInputStream in, List<BPListElement<?>> objectTable) throws IOException {
-        objectTable.add(new BPListDate(in.readDouble()));
+    private BPListDate parseDate(BPListBuffer in) throws IOException {
+        return new BPListDate(in.readDouble());
     }
 
     /**
      * string 0110 nnnn [int] ... // Unicode string, nnnn is # of chars, else
      * 1111 then int count, then big-endian 2-byte shorts
      */
-    private void parseUnicodeString(DataInputStream in, int count, List<BPListElement<?>> objectTable) throws IOException {
-        char[] buf = new char[count];
-        for (int i = 0; i < count; i++) {
-            buf[i] = in.readChar();
-        }
-        objectTable.add(new BPListString(buf));
+    private BPListString parseUnicodeString(BPListBuffer in, int count) throws IOException {
+        long offset = in.position();
+        in.seek(offset + (2L * count));
+        return new BPListString(in, offset, count, BPListType.UNICODE_STRING);
     }
 
 }
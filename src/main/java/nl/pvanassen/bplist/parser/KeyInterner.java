@@ -0,0 +1,113 @@
+package nl.pvanassen.bplist.parser;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded cache of dict keys, shared by parsers and documents on any number
+ * of threads. Keys are looked up by their raw bytes in the file, so a key
+ * seen before is returned as the same string without decoding it again.
+ * <p>
+ * The cache is a fixed size table of slots picked by the hash of the bytes.
+ * A key that hashes to a taken slot replaces the key in it, so the memory used
+ * never grows beyond the capacity, and lookups never lock.
+ *
+ * @author Paul van Assen
+ */
+public final class KeyInterner {
+    /**
+     * Longer keys are decoded without caching them
+     */
+    private static final int MAX_KEY_BYTES = 256;
+    private final AtomicReferenceArray<Key> table;
+    private final int mask;
+
+    /**
+     * Creates an interner with room for 4096 keys
+     */
+    public KeyInterner() {
+        this(4096);
+    }
+
+    /**
+     * @param capacity
+     *            Maximum number of keys kept, rounded up to a power of two
+     */
+    public KeyInterner(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit((capacity * 2) - 1);
+        table = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Reads the content of a string and returns the cached string for the
+     * same bytes, or decodes it and caches it.
+     *
+     * @param in
+     *            Buffer positioned after the marker and count of the string.
+     *            After the call it is positioned after the string.
+     * @param unicode
+     *            True for a UTF-16 string, false for an ASCII string
+     * @param count
+     *            Number of characters
+     * @return Decoded string
+     * @throws IOException
+     *             In case of an error, or if the string runs past the end of
+     *             the buffer
+     */
+    String intern(BPListBuffer in, boolean unicode, int count) throws IOException {
+        long size = unicode ? 2L * count : count;
+        if ((count < 0) || (size > (in.length() - in.position()))) {
+            throw new IOException("intern: key of " + size + " bytes at " + in.position() + " runs past the end of the bplist");
+        }
+        if (size > MAX_KEY_BYTES) {
+            return unicode ? in.readUtf16(count) : in.readAscii(count);
+        }
+        int length = (int) size;
+        int hash = in.hash(length);
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        Key key = table.get(slot);
+        if ((key != null) && (key.hash == hash) && (key.unicode == unicode) && (key.bytes.length == length) && in.startsWith(key.bytes)) {
+            in.seek(in.position() + length);
+            return key.value;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        String value = decode(bytes, unicode);
+        // Keys are immutable, racing threads may overwrite each other's key
+        table.lazySet(slot, new Key(hash, unicode, bytes, value));
+        return value;
+    }
+
+    /**
+     * Decodes the bytes the same way {@link BPListString} does, bytes outside
+     * of ASCII become the replacement character
+     */
+    private static String decode(byte[] bytes, boolean unicode) {
+        if (!unicode) {
+            return BPListBuffer.ascii(bytes, 0, bytes.length);
+        }
+        char[] chars = new char[bytes.length / 2];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (((bytes[2 * i] & 0xff) << 8) | (bytes[(2 * i) + 1] & 0xff));
+        }
+        return new String(chars);
+    }
+
+    private static final class Key {
+        private final int hash;
+        private final boolean unicode;
+        private final byte[] bytes;
+        private final String value;
+
+        private Key(int hash, boolean unicode, byte[] bytes, String value) {
+            this.hash = hash;
+            this.unicode = unicode;
+            this.bytes = bytes;
+            this.value = value;
+        }
+    }
+}
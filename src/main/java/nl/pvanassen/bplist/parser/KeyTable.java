@@ -0,0 +1,16 @@
+package nl.pvanassen.bplist.parser;
+
+/**
+ * Object table that can decode dict keys straight to a string, without
+ * creating an element for them. Used by {@link BPLDict} when available.
+ *
+ * @author Paul van Assen
+ */
+interface KeyTable {
+    /**
+     * @param ref
+     *            Object reference of the key
+     * @return Decoded key
+     */
+    String getKey(int ref);
+}
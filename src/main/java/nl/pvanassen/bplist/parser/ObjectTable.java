@@ -0,0 +1,181 @@
+package nl.pvanassen.bplist.parser;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Object table stored column wise: the marker byte and the offset of every
+ * object in primitive arrays, and the refs of all arrays and dicts packed in a
+ * single primitive array as wide as the refs in the file. Elements are only
+ * created when they are asked for, arrays and dicts only once. Resolving a
+ * ref is a plain array lookup.
+ *
+ * @author Paul van Assen
+ */
+final class ObjectTable extends AbstractList<BPListElement<?>> implements BPListObjectTable, RandomAccess, KeyTable, ValueTable {
+    private final ElementParser parser;
+    private final BPListBuffer in;
+    private final int topObject;
+    private final int objectRefSize;
+    private final byte[] markers;
+    private final long[] offsets;
+    private final int[] refIndex;
+    private final RefArray refs;
+    /**
+     * Arrays and dicts handed out so far, so fetching one again returns the
+     * same element and a dict keeps its key index
+     */
+    private final BPListElement<?>[] containers;
+    /**
+     * Reader handed back by the last read. Reads take it when it is free and
+     * duplicate the buffer when another thread holds it.
+     */
+    private final AtomicReference<BPListBuffer> spare = new AtomicReference<>();
+
+    /**
+     * @param parser
+     *            Parser decoding the objects on demand
+     * @param in
+     *            Buffer with the complete bplist
+     * @param topObject
+     *            Reference of the top level object
+     * @param objectRefSize
+     *            Byte size of object refs
+     * @param markers
+     *            Marker byte per object
+     * @param offsets
+     *            Position per object
+     * @param refIndex
+     *            Index of the first ref per object in the packed refs, with
+     *            one extra entry for the end of the last object
+     * @param refs
+     *            Packed refs of all arrays and dicts, dict keys before values
+     */
+    ObjectTable(ElementParser parser, BPListBuffer in, int topObject, int objectRefSize, byte[] markers, long[] offsets, int[] refIndex, RefArray refs) {
+        this.parser = parser;
+        this.in = in;
+        this.topObject = topObject;
+        this.objectRefSize = objectRefSize;
+        this.markers = markers;
+        this.offsets = offsets;
+        this.refIndex = refIndex;
+        this.refs = refs;
+        this.containers = new BPListElement<?>[markers.length];
+    }
+
+    @Override
+    public int getTopObjectRef() {
+        return topObject;
+    }
+
+    @Override
+    public BPListElement<?> get(int index) {
+        switch ((markers[index] & 0xf0) >> 4) {
+            case 10:
+            case 13:
+                BPListElement<?> container = containers[index];
+                if (container == null) {
+                    container = container(index);
+                    // Racing threads create equal elements, the final fields make publishing safe
+                    containers[index] = container;
+                }
+                return container;
+            default:
+                BPListBuffer reader = reader();
+                try {
+                    reader.seek(offsets[index]);
+                    return parser.parseObject(reader, this, objectRefSize);
+                } catch (IOException e) {
+                    throw new RuntimeException("Error decoding object " + index, e);
+                } finally {
+                    spare.set(reader);
+                }
+        }
+    }
+
+    @Override
+    public String getKey(int ref) {
+        BPListBuffer reader = reader();
+        try {
+            reader.seek(offsets[ref]);
+            return parser.parseKey(reader, this, objectRefSize);
+        } catch (IOException e) {
+            throw new RuntimeException("Error decoding key " + ref, e);
+        } finally {
+            spare.set(reader);
+        }
+    }
+
+    @Override
+    public long getLong(int ref) {
+        BPListBuffer reader = reader();
+        try {
+            reader.seek(offsets[ref]);
+            return parser.parseLongValue(reader);
+        } catch (IOException e) {
+            throw new RuntimeException("Error decoding object " + ref, e);
+        } finally {
+            spare.set(reader);
+        }
+    }
+
+    @Override
+    public double getDouble(int ref) {
+        BPListBuffer reader = reader();
+        try {
+            reader.seek(offsets[ref]);
+            return parser.parseDoubleValue(reader);
+        } catch (IOException e) {
+            throw new RuntimeException("Error decoding object " + ref, e);
+        } finally {
+            spare.set(reader);
+        }
+    }
+
+    @Override
+    public boolean getBoolean(int ref) {
+        BPListBuffer reader = reader();
+        try {
+            reader.seek(offsets[ref]);
+            return parser.parseBooleanValue(reader);
+        } catch (IOException e) {
+            throw new RuntimeException("Error decoding object " + ref, e);
+        } finally {
+            spare.set(reader);
+        }
+    }
+
+    @Override
+    public int getUid(int ref) {
+        BPListBuffer reader = reader();
+        try {
+            reader.seek(offsets[ref]);
+            return parser.parseUidValue(reader);
+        } catch (IOException e) {
+            throw new RuntimeException("Error decoding object " + ref, e);
+        } finally {
+            spare.set(reader);
+        }
+    }
+
+    @Override
+    public int size() {
+        return markers.length;
+    }
+
+    private BPListElement<?> container(int index) {
+        int start = refIndex[index];
+        int count = refIndex[index + 1] - start;
+        if (((markers[index] & 0xf0) >> 4) == 10) {
+            return new BPLArray(this, refs.copy(start, count), BPListType.array(objectRefSize));
+        }
+        count /= 2;
+        return new BPLDict(this, refs.copy(start, count), refs.copy(start + count, count), BPListType.dict(objectRefSize));
+    }
+
+    private BPListBuffer reader() {
+        BPListBuffer reader = spare.getAndSet(null);
+        return (reader != null) ? reader : in.duplicate();
+    }
+}
@@ -0,0 +1,166 @@
+package nl.pvanassen.bplist.parser;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Decodes all objects of a bplist on several threads. The offset table gives
+ * the start of every object, so the table is split in ranges of objects that
+ * are decoded independently, each with its own read position, into a shared
+ * object table.
+ *
+ * @author Paul van Assen
+ */
+final class ParallelDecoder {
+    /**
+     * Number of objects below which a range is not split any further
+     */
+    private static final int THRESHOLD = 256;
+    private final ElementParser parser;
+    private final BPListBuffer in;
+    private final int objectRefSize;
+    private final long[] offsets;
+    private final BPListElement<?>[] objects;
+    private final DecodedTable objectTable;
+
+    /**
+     * @param parser
+     *            Parser decoding the objects
+     * @param in
+     *            Buffer with the complete bplist
+     * @throws IOException
+     *             In case of an error reading the trailer or offset table
+     */
+    ParallelDecoder(ElementParser parser, BPListBuffer in) throws IOException {
+        BPListTrailer trailer = BPListTrailer.read(in);
+        this.parser = parser;
+        this.in = in;
+        this.objectRefSize = trailer.getObjectRefSize();
+        this.offsets = trailer.readOffsets(in);
+        this.objects = new BPListElement<?>[trailer.getObjectCount()];
+        this.objectTable = new DecodedTable(trailer.getTopObject());
+    }
+
+    /**
+     * Decodes all objects. A {@link ForkJoinPool} splits the ranges
+     * recursively, other executors get ranges of a fixed size.
+     *
+     * @param executor
+     *            Executor to decode on
+     * @return List of objects parsed, indexed by object reference
+     * @throws IOException
+     *             In case of an error decoding an object
+     */
+    BPListObjectTable decode(ExecutorService executor) throws IOException {
+        if (executor instanceof ForkJoinPool) {
+            try {
+                ((ForkJoinPool) executor).invoke(new DecodeTask(0, objects.length));
+            } catch (RuntimeException e) {
+                throw rethrow(e);
+            }
+            return objectTable;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int from = 0; from < objects.length; from += THRESHOLD) {
+            final int start = from;
+            final int end = Math.min(from + THRESHOLD, objects.length);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    decode(start, end);
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decoding objects");
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+        return objectTable;
+    }
+
+    private void decode(int from, int to) throws IOException {
+        BPListBuffer reader = in.duplicate();
+        for (int ref = from; ref < to; ref++) {
+            reader.seek(offsets[ref]);
+            objects[ref] = parser.parseObject(reader, objectTable, objectRefSize);
+        }
+    }
+
+    /**
+     * Finds the IO exception a task failed with, exceptions of tasks may have
+     * been wrapped more than once on the way back
+     */
+    private static IOException rethrow(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return (IOException) cause;
+            }
+        }
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new IOException("Error decoding objects", e);
+    }
+
+    /**
+     * The decoded objects, with the top level object from the trailer
+     */
+    private class DecodedTable extends AbstractList<BPListElement<?>> implements BPListObjectTable, RandomAccess {
+        private final int topObject;
+
+        private DecodedTable(int topObject) {
+            this.topObject = topObject;
+        }
+
+        @Override
+        public int getTopObjectRef() {
+            return topObject;
+        }
+
+        @Override
+        public BPListElement<?> get(int index) {
+            return objects[index];
+        }
+
+        @Override
+        public int size() {
+            return objects.length;
+        }
+    }
+
+    private class DecodeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+
+        private DecodeTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if ((to - from) <= THRESHOLD) {
+                try {
+                    decode(from, to);
+                } catch (IOException e) {
+                    throw new RuntimeException("Error decoding objects " + from + " to " + to, e);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new DecodeTask(from, middle), new DecodeTask(middle, to));
+        }
+    }
+}
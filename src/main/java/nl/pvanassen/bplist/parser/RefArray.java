@@ -0,0 +1,122 @@
+package nl.pvanassen.bplist.parser;
+
+import java.io.IOException;
+
+/**
+ * Packed object refs of all arrays and dicts in a bplist, stored in a
+ * primitive array as wide as the object refs in the file.
+ *
+ * @author Paul van Assen
+ */
+abstract class RefArray {
+
+    /**
+     * @param objectRefSize
+     *            Byte size of object refs, from the trailer
+     * @param length
+     *            Total number of refs
+     * @return Ref array of the matching width
+     */
+    static RefArray allocate(int objectRefSize, int length) {
+        switch (objectRefSize) {
+            case 1:
+                return new ByteRefArray(length);
+            case 2:
+                return new ShortRefArray(length);
+            default:
+                return new IntRefArray(objectRefSize, length);
+        }
+    }
+
+    /**
+     * @param index
+     *            Index in the packed refs
+     * @return Object ref
+     */
+    abstract int get(int index);
+
+    /**
+     * Reads refs from the current position of the buffer
+     *
+     * @param in
+     *            Buffer positioned at the first ref
+     * @param index
+     *            Index in the packed refs of the first ref
+     * @param count
+     *            Number of refs to read
+     * @throws IOException
+     *             In case of an error
+     */
+    abstract void read(BPListBuffer in, int index, int count) throws IOException;
+
+    /**
+     * Copies refs out into a new array
+     */
+    int[] copy(int index, int count) {
+        int[] refs = new int[count];
+        for (int i = 0; i < count; i++) {
+            refs[i] = get(index + i);
+        }
+        return refs;
+    }
+
+    private static final class ByteRefArray extends RefArray {
+        private final byte[] refs;
+
+        private ByteRefArray(int length) {
+            refs = new byte[length];
+        }
+
+        @Override
+        int get(int index) {
+            return refs[index] & 0xff;
+        }
+
+        @Override
+        void read(BPListBuffer in, int index, int count) throws IOException {
+            in.readFully(refs, index, count);
+        }
+    }
+
+    private static final class ShortRefArray extends RefArray {
+        private final char[] refs;
+
+        private ShortRefArray(int length) {
+            refs = new char[length];
+        }
+
+        @Override
+        int get(int index) {
+            return refs[index];
+        }
+
+        @Override
+        void read(BPListBuffer in, int index, int count) throws IOException {
+            in.readChars(refs, index, count);
+        }
+    }
+
+    /**
+     * Refs of 3 up to 8 bytes. Object refs index the offset table, so they
+     * always fit in an int.
+     */
+    private static final class IntRefArray extends RefArray {
+        private final int objectRefSize;
+        private final int[] refs;
+
+        private IntRefArray(int objectRefSize, int length) {
+            this.objectRefSize = objectRefSize;
+            refs = new int[length];
+        }
+
+        @Override
+        int get(int index) {
+            return refs[index];
+        }
+
+        @Override
+        void read(BPListBuffer in, int index, int count) throws IOException {
+            in.readRefs(refs, index, count, objectRefSize);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package nl.pvanassen.bplist.parser;
+
+/**
+ * Object table that can read numbers, booleans and uids straight from the
+ * bytes, without creating an element for them. Used by {@link BPLDict} and
+ * {@link BPLArray} when available.
+ *
+ * @author Paul van Assen
+ */
+interface ValueTable {
+    /**
+     * @param ref
+     *            Object reference of an integer or real
+     * @return Value as a long
+     */
+    long getLong(int ref);
+
+    /**
+     * @param ref
+     *            Object reference of an integer or real
+     * @return Value as a double
+     */
+    double getDouble(int ref);
+
+    /**
+     * @param ref
+     *            Object reference of a boolean
+     * @return Value
+     */
+    boolean getBoolean(int ref);
+
+    /**
+     * @param ref
+     *            Object reference of a uid
+     * @return Value
+     */
+    int getUid(int ref);
+}
@@ -0,0 +1,424 @@
+package nl.pvanassen.bplist.writer;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import nl.pvanassen.bplist.parser.*;
+
+/**
+ * Saves changes to an existing bplist file without rewriting it. The offset
+ * table and trailer are at the end of a bplist, so changed and new objects
+ * are appended after the old trailer, followed by a new offset table and
+ * trailer. Objects keep their reference, a changed object only gets a new
+ * offset, so arrays and dicts pointing to it do not have to be written again.
+ * Every save does write the complete offset table, a few bytes per object.
+ * <p>
+ * Changes are kept in memory until {@link #save()}, which appends them
+ * together with the offset table and trailer and forces the file to disk. Until
+ * then the file is not touched, and closing without saving drops the changes.
+ * The file stays readable by {@link ElementParser} after every save. Objects
+ * that are no longer referenced stay in the file until it is rewritten, for
+ * instance by {@link BPListOptimizer}. The width of object refs is taken from
+ * the file, so the number of objects can not grow beyond what fits in it.
+ * <p>
+ * Values are given as plain Java objects or parsed elements, like for
+ * {@link BPListWriter}. Objects already in the file can be used anywhere in a
+ * value through {@link #ref(int)}, they are referred to instead of appended
+ * again. Equal leaves within a single value are shared. Not thread safe.
+ *
+ * <pre>
+ * try (BPListAppender appender = new BPListAppender(file)) {
+ *     Map&lt;String, Object&gt; top = new LinkedHashMap&lt;&gt;();
+ *     top.put("previous", appender.ref(appender.getTopObject()));
+ *     appender.setTopObject(appender.append(top));
+ *     appender.save();
+ * }
+ * </pre>
+ *
+ * @author Paul van Assen
+ */
+public class BPListAppender implements Closeable {
+    private final FileChannel channel;
+    private final BPListInput in;
+    private final int objectRefSize;
+    private final long maxObjectCount;
+    /** Objects to write on save by ref, as leaves or containers with refs of this file */
+    private final Map<Integer, Object> pending = new TreeMap<>();
+    private long[] offsets;
+    private int objectCount;
+    private int topObject;
+    private long savedLength;
+    private boolean dirty;
+
+    /**
+     * Opens a bplist file for appending. Only the trailer and the offset table
+     * are read.
+     *
+     * @param file
+     *            Bplist file to change
+     * @throws IOException
+     *             In case of an error reading the file
+     */
+    public BPListAppender(File file) throws IOException {
+        BPListDocument document = new ElementParser().parseDocument(file);
+        objectRefSize = document.getObjectRefSize();
+        maxObjectCount = (objectRefSize >= 4) ? Integer.MAX_VALUE : 1L << (8 * objectRefSize);
+        offsets = document.getOffsets();
+        objectCount = document.getObjectCount();
+        topObject = document.getTopObjectRef();
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        savedLength = channel.size();
+        in = new BPListInput(channel);
+    }
+
+    /**
+     * @return Number of objects, including the ones appended since the last
+     *         save
+     */
+    public int getObjectCount() {
+        return objectCount;
+    }
+
+    /**
+     * @return Reference of the top level object
+     */
+    public int getTopObject() {
+        return topObject;
+    }
+
+    /**
+     * @param ref
+     *            Reference of the new top level object
+     */
+    public void setTopObject(int ref) {
+        checkRef(ref);
+        topObject = ref;
+        dirty = true;
+    }
+
+    /**
+     * Refers to an object in the file, or appended since the last save, from
+     * a new value
+     *
+     * @param ref
+     *            Reference of the object
+     * @return Placeholder to put in a value instead of the object itself
+     */
+    public Ref ref(int ref) {
+        checkRef(ref);
+        return new Ref(ref);
+    }
+
+    /**
+     * Appends a new object
+     *
+     * @param value
+     *            Value of the object, including its children
+     * @return Reference of the new object, or of the object referred to when
+     *         the value is a {@link Ref}
+     * @throws IOException
+     *             In case of an error writing
+     */
+    public int append(Object value) throws IOException {
+        return write(value, -1);
+    }
+
+    /**
+     * Replaces an object. Arrays and dicts referring to the object see the new
+     * value. Children that do not change can be given as {@link #ref(int)} to
+     * keep them from being appended again.
+     *
+     * @param ref
+     *            Reference of the object to replace
+     * @param value
+     *            New value of the object, including its children
+     * @throws IOException
+     *             In case of an error writing
+     */
+    public void replace(int ref, Object value) throws IOException {
+        checkRef(ref);
+        write(value, ref);
+    }
+
+    /**
+     * Sets an entry of a dict. Only the value, the key when it is new and the
+     * dict itself are appended, the other entries are shared with the old
+     * dict. When the key occurs more than once the last entry is changed, the
+     * one the parser reads.
+     *
+     * @param dictRef
+     *            Reference of the dict
+     * @param key
+     *            Key of the entry
+     * @param value
+     *            New value of the entry
+     * @throws IOException
+     *             In case of an error reading or writing
+     */
+    public void put(int dictRef, String key, Object value) throws IOException {
+        int[] refs = readRefs(dictRef, true);
+        int count = refs.length / 2;
+        int index = count - 1;
+        while ((index >= 0) && !key.equals(readString(refs[index]))) {
+            index--;
+        }
+        int valueRef = write(value, -1);
+        if (index >= 0) {
+            refs[count + index] = valueRef;
+        } else {
+            int[] grown = new int[(count + 1) * 2];
+            System.arraycopy(refs, 0, grown, 0, count);
+            System.arraycopy(refs, count, grown, count + 1, count);
+            grown[count] = write(key, -1);
+            grown[(count * 2) + 1] = valueRef;
+            refs = grown;
+        }
+        pending.put(dictRef, new BPListWriter.Container(true, refs));
+        dirty = true;
+    }
+
+    /**
+     * Sets an element of an array. Only the value and the array itself are
+     * appended, the other elements are shared with the old array.
+     *
+     * @param arrayRef
+     *            Reference of the array
+     * @param index
+     *            Index of the element
+     * @param value
+     *            New value of the element
+     * @throws IOException
+     *             In case of an error reading or writing
+     */
+    public void set(int arrayRef, int index, Object value) throws IOException {
+        int[] refs = readRefs(arrayRef, false);
+        if ((index < 0) || (index >= refs.length)) {
+            throw new IllegalArgumentException("Index " + index + " not in array of " + refs.length);
+        }
+        refs[index] = write(value, -1);
+        pending.put(arrayRef, new BPListWriter.Container(false, refs));
+        dirty = true;
+    }
+
+    /**
+     * Adds an element to the end of an array. Only the value and the array
+     * itself are appended, the other elements are shared with the old array.
+     *
+     * @param arrayRef
+     *            Reference of the array
+     * @param value
+     *            Value of the new element
+     * @throws IOException
+     *             In case of an error reading or writing
+     */
+    public void add(int arrayRef, Object value) throws IOException {
+        int[] refs = readRefs(arrayRef, false);
+        refs = Arrays.copyOf(refs, refs.length + 1);
+        refs[refs.length - 1] = write(value, -1);
+        pending.put(arrayRef, new BPListWriter.Container(false, refs));
+        dirty = true;
+    }
+
+    /**
+     * Appends the changed objects, a new offset table and trailer, and forces
+     * the file to disk. Does nothing when nothing changed since the last save.
+     * If writing fails the file is cut back to the last save and the changes
+     * are kept, so saving can be tried again.
+     *
+     * @throws IOException
+     *             In case of an error writing
+     */
+    public void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        long[] saving = Arrays.copyOf(offsets, objectCount);
+        BPListOutput out = new BPListOutput(channel.position(savedLength), savedLength);
+        try {
+            for (Map.Entry<Integer, Object> entry : pending.entrySet()) {
+                saving[entry.getKey()] = out.position();
+                Object object = entry.getValue();
+                if (object instanceof BPListWriter.Container) {
+                    BPListWriter.Container container = (BPListWriter.Container) object;
+                    out.writeMarker(container.dict ? 0xd0 : 0xa0, container.dict ? container.refs.length / 2 : container.refs.length);
+                    out.writeRefs(container.refs, 0, container.refs.length, objectRefSize);
+                } else {
+                    out.writeValue(object);
+                }
+            }
+            out.writeOffsetTableAndTrailer(saving, objectCount, objectRefSize, topObject);
+            out.flush();
+            channel.force(false);
+        } catch (IOException e) {
+            channel.truncate(savedLength);
+            throw e;
+        }
+        offsets = saving;
+        savedLength = out.position();
+        pending.clear();
+        dirty = false;
+    }
+
+    /**
+     * Closes the file. Changes since the last save are dropped, the file is
+     * left as it was saved.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Keeps the objects of a value for the next save
+     *
+     * @param value
+     *            Value to write
+     * @param rootRef
+     *            Reference to give the value itself, or -1 for a new one
+     * @return Reference of the value
+     */
+    private int write(Object value, int rootRef) throws IOException {
+        if (value instanceof Ref) {
+            return alias(((Ref) value).ref, rootRef);
+        }
+        BPListWriter.ObjectTable objectTable = new BPListWriter.ObjectTable(true);
+        objectTable.add(value);
+        List<Object> objects = objectTable.objects;
+        int added = (rootRef < 0) ? 0 : -1;
+        for (Object object : objects) {
+            if (!(object instanceof Ref)) {
+                added++;
+            }
+        }
+        if ((objectCount + (long) added) > maxObjectCount) {
+            throw new IllegalStateException("No room for more objects in object refs of " + objectRefSize + " bytes");
+        }
+        int[] refs = new int[objects.size()];
+        for (int i = 0; i < refs.length; i++) {
+            Object object = objects.get(i);
+            if (object instanceof Ref) {
+                refs[i] = ((Ref) object).ref;
+            } else {
+                refs[i] = ((i == 0) && (rootRef >= 0)) ? rootRef : objectCount++;
+            }
+        }
+        if (offsets.length < objectCount) {
+            offsets = Arrays.copyOf(offsets, Math.max(objectCount, offsets.length + (offsets.length >> 1)));
+        }
+        for (int i = 0; i < refs.length; i++) {
+            Object object = objects.get(i);
+            if (object instanceof BPListWriter.Container) {
+                BPListWriter.Container container = (BPListWriter.Container) object;
+                int[] children = new int[container.refs.length];
+                for (int j = 0; j < children.length; j++) {
+                    children[j] = refs[container.refs[j]];
+                }
+                pending.put(refs[i], new BPListWriter.Container(container.dict, children));
+            } else if (!(object instanceof Ref)) {
+                pending.put(refs[i], object);
+            }
+        }
+        dirty = true;
+        return refs[0];
+    }
+
+    /**
+     * Makes an object the same as another one, by pointing it to the same
+     * bytes
+     *
+     * @param target
+     *            Reference of the object to refer to
+     * @param rootRef
+     *            Reference of the object to change, or -1 to only return the
+     *            target
+     * @return Reference of the changed object, or the target
+     */
+    private int alias(int target, int rootRef) {
+        checkRef(target);
+        if ((rootRef < 0) || (rootRef == target)) {
+            return target;
+        }
+        if (pending.containsKey(target)) {
+            pending.put(rootRef, pending.get(target));
+        } else {
+            pending.remove(rootRef);
+            offsets[rootRef] = offsets[target];
+        }
+        dirty = true;
+        return rootRef;
+    }
+
+    /**
+     * Reads the object refs of an array, or the key refs followed by the value
+     * refs of a dict, as changed since the last save
+     */
+    private int[] readRefs(int ref, boolean dict) throws IOException {
+        checkRef(ref);
+        if (pending.containsKey(ref)) {
+            Object object = pending.get(ref);
+            if ((object instanceof BPListWriter.Container) && (((BPListWriter.Container) object).dict == dict)) {
+                return ((BPListWriter.Container) object).refs.clone();
+            }
+        } else {
+            long[] header = in.readHeader(offsets[ref]);
+            if ((header[0] >> 4) == (dict ? 13 : 10)) {
+                return in.readRefs(header, objectRefSize);
+            }
+        }
+        throw new IllegalStateException("Not " + (dict ? "a dict: " : "an array: ") + ref);
+    }
+
+    /**
+     * @return String as changed since the last save, or null if the object is
+     *         no string
+     */
+    private String readString(int ref) throws IOException {
+        if (pending.containsKey(ref)) {
+            Object object = pending.get(ref);
+            return (object instanceof String) ? (String) object : null;
+        }
+        return in.readString(offsets[ref]);
+    }
+
+    private void checkRef(int ref) {
+        if ((ref < 0) || (ref >= objectCount)) {
+            throw new IllegalArgumentException("Object ref " + ref + " not in object table");
+        }
+    }
+
+    /**
+     * Reference to an object already in the file, to use in a new value in
+     * place of the object
+     */
+    public static final class Ref {
+        private final int ref;
+
+        private Ref(int ref) {
+            this.ref = ref;
+        }
+
+        /**
+         * @return Reference of the object
+         */
+        public int getRef() {
+            return ref;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return (obj instanceof Ref) && (((Ref) obj).ref == ref);
+        }
+
+        @Override
+        public int hashCode() {
+            return ref;
+        }
+
+        @Override
+        public String toString() {
+            return "Ref " + ref;
+        }
+    }
+}
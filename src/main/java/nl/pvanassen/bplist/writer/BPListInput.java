@@ -0,0 +1,149 @@
+package nl.pvanassen.bplist.writer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads objects of a bplist file back through a file channel, using
+ * positional reads so the position of the channel is not disturbed. Reads
+ * go through a window of the file, objects near each other cost a single read
+ * of the channel.
+ * <p>
+ * Bytes that were read are assumed not to change, only bytes appended after
+ * them.
+ *
+ * @author Paul van Assen
+ */
+final class BPListInput {
+    private static final int WINDOW_SIZE = 1 << 16;
+    private final FileChannel channel;
+    private ByteBuffer window = ByteBuffer.allocate(0);
+    private long windowStart;
+
+    /**
+     * @param channel
+     *            Channel to read from, not closed by this input
+     */
+    BPListInput(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Reads the marker and count of an object. Data, strings, arrays and dicts
+     * with a count of 15 or more have an int object with the count after the
+     * marker.
+     *
+     * @param offset
+     *            Position of the object
+     * @return Marker, count and position of the content
+     * @throws IOException
+     *             In case of an error reading
+     */
+    long[] readHeader(long offset) throws IOException {
+        int marker = read(offset, 1).get() & 0xff;
+        long count = marker & 0xf;
+        long content = offset + 1;
+        int type = marker >> 4;
+        if ((count == 15) && ((type == 4) || (type == 5) || (type == 6) || (type == 10) || (type == 13))) {
+            int intMarker = read(content, 1).get() & 0xff;
+            int size = 1 << (intMarker & 0xf);
+            if (((intMarker >> 4) != 1) || (size > 8)) {
+                throw new IOException("readHeader: illegal count marker " + Integer.toBinaryString(intMarker));
+            }
+            count = readSized(read(content + 1, size), size);
+            content += 1 + size;
+        }
+        return new long[] { marker, count, content };
+    }
+
+    /**
+     * Reads the object refs of an array, or the key refs followed by the value
+     * refs of a dict
+     *
+     * @param header
+     *            Header of the array or dict
+     * @param objectRefSize
+     *            Byte size of object refs
+     * @return Object refs
+     * @throws IOException
+     *             In case of an error reading
+     */
+    int[] readRefs(long[] header, int objectRefSize) throws IOException {
+        int count = (int) (((header[0] >> 4) == 13) ? header[1] * 2 : header[1]);
+        ByteBuffer bytes = read(header[2], count * objectRefSize);
+        int[] refs = new int[count];
+        for (int i = 0; i < count; i++) {
+            long ref = readSized(bytes, objectRefSize);
+            if ((ref < 0) || (ref > Integer.MAX_VALUE)) {
+                throw new IOException("readRefs: object ref " + ref + " out of range");
+            }
+            refs[i] = (int) ref;
+        }
+        return refs;
+    }
+
+    /**
+     * @param offset
+     *            Position of a string object
+     * @return Decoded string, or null if the object is no string
+     * @throws IOException
+     *             In case of an error reading
+     */
+    String readString(long offset) throws IOException {
+        long[] header = readHeader(offset);
+        switch ((int) (header[0] >> 4)) {
+            case 5:
+                return StandardCharsets.US_ASCII.decode(read(header[2], (int) header[1])).toString();
+            case 6:
+                return StandardCharsets.UTF_16BE.decode(read(header[2], (int) header[1] * 2)).toString();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Reads bytes from the window, moving the window when they are not in it
+     *
+     * @param position
+     *            Position of the first byte
+     * @param length
+     *            Number of bytes
+     * @return Buffer holding the bytes between its position and limit, only
+     *         valid until the next read
+     * @throws IOException
+     *             In case of an error reading, or if the file ends too soon
+     */
+    ByteBuffer read(long position, int length) throws IOException {
+        if ((position < windowStart) || ((position + length) > (windowStart + window.limit()))) {
+            fill(position, length);
+        }
+        ByteBuffer bytes = window.duplicate();
+        bytes.position((int) (position - windowStart));
+        bytes.limit(bytes.position() + length);
+        return bytes;
+    }
+
+    private void fill(long position, int length) throws IOException {
+        if (window.capacity() < Math.max(length, WINDOW_SIZE)) {
+            window = ByteBuffer.allocate(Math.max(length, WINDOW_SIZE));
+        }
+        window.clear();
+        windowStart = position;
+        while (window.position() < length) {
+            if (channel.read(window, position + window.position()) == -1) {
+                throw new EOFException("Illegal EOF at position " + (position + window.position()) + ", " + (length - window.position()) + " bytes needed");
+            }
+        }
+        window.flip();
+    }
+
+    static long readSized(ByteBuffer buffer, int size) {
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | (buffer.get() & 0xff);
+        }
+        return value;
+    }
+}
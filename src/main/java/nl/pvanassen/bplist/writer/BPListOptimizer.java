@@ -0,0 +1,210 @@
+package nl.pvanassen.bplist.writer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+import nl.pvanassen.bplist.parser.*;
+
+/**
+ * Compacts bplist files. Objects are read through the offset table starting
+ * at the top level object, so objects nothing refers to any more, like the
+ * ones left behind by {@link BPListAppender}, are dropped. Equal objects are
+ * merged: leaves with the same bytes, and arrays and dicts with the same
+ * children. The result gets the smallest object refs and offsets that fit.
+ * <p>
+ * Leaves are copied byte for byte, so the result reads exactly the same as the
+ * original. The unique leaves and the structure are held in memory while
+ * optimizing.
+ *
+ * @author Paul van Assen
+ */
+public class BPListOptimizer {
+    private final ElementParser elementParser = new ElementParser();
+
+    /**
+     * Optimizes a file in place. The result is written to a temporary file
+     * next to it, which then replaces the file.
+     *
+     * @param file
+     *            Bplist file to optimize
+     * @return Number of bytes saved
+     * @throws IOException
+     *             In case of an error
+     */
+    public long optimize(File file) throws IOException {
+        File target = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            long saved = optimize(file, target);
+            Files.move(target.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return saved;
+        } finally {
+            target.delete();
+        }
+    }
+
+    /**
+     * @param source
+     *            Bplist file to optimize
+     * @param target
+     *            File to write the result to, replacing its contents
+     * @return Number of bytes saved, the size of the source minus the size of
+     *         the target
+     * @throws IOException
+     *             In case of an error
+     */
+    public long optimize(File source, File target) throws IOException {
+        BPListDocument document = elementParser.parseDocument(source);
+        Compaction compaction;
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            compaction = new Compaction(new BPListInput(channel), document.getOffsets(), document.getObjectRefSize());
+            compaction.visit(document.getTopObjectRef());
+        }
+        try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            compaction.write(new BPListOutput(channel, 0));
+        }
+        return source.length() - target.length();
+    }
+
+    /**
+     * Unique objects of a bplist, numbered children first. Leaves are kept as
+     * their bytes wrapped in a byte buffer, so they are equal and hashed by
+     * content.
+     */
+    private static final class Compaction {
+        private final BPListInput in;
+        private final long[] offsets;
+        private final int objectRefSize;
+        private final int[] ids;
+        private final List<Object> objects = new ArrayList<>();
+        private final Map<Object, Integer> unique = new HashMap<>();
+
+        private Compaction(BPListInput in, long[] offsets, int objectRefSize) {
+            this.in = in;
+            this.offsets = offsets;
+            this.objectRefSize = objectRefSize;
+            ids = new int[offsets.length];
+            Arrays.fill(ids, -1);
+        }
+
+        /**
+         * Reads an object and its children
+         *
+         * @return Id of the unique object
+         */
+        private int visit(int ref) throws IOException {
+            if ((ref < 0) || (ref >= ids.length)) {
+                throw new IOException("optimize: object ref " + ref + " not in object table");
+            }
+            if (ids[ref] >= 0) {
+                return ids[ref];
+            }
+            if (ids[ref] == -2) {
+                throw new IOException("optimize: object " + ref + " contains itself");
+            }
+            long[] header = in.readHeader(offsets[ref]);
+            int type = (int) (header[0] >> 4);
+            Object object;
+            if ((type == 10) || (type == 13)) {
+                ids[ref] = -2;
+                int[] refs = in.readRefs(header, objectRefSize);
+                for (int i = 0; i < refs.length; i++) {
+                    refs[i] = visit(refs[i]);
+                }
+                object = new Container(type == 13, refs);
+            } else {
+                ByteBuffer bytes = in.read(offsets[ref], leafLength(header, offsets[ref]));
+                byte[] copy = new byte[bytes.remaining()];
+                bytes.get(copy);
+                object = ByteBuffer.wrap(copy);
+            }
+            Integer id = unique.get(object);
+            if (id == null) {
+                id = objects.size();
+                objects.add(object);
+                unique.put(object, id);
+            }
+            ids[ref] = id;
+            return id;
+        }
+
+        /**
+         * Writes the unique objects. The top level object is numbered last, it
+         * is written first so it gets ref 0 like in files of
+         * {@link BPListWriter}.
+         */
+        private void write(BPListOutput out) throws IOException {
+            int count = objects.size();
+            int refSize = BPListOutput.intSize(count - 1);
+            long[] newOffsets = new long[count];
+            out.writeHeader();
+            for (int ref = 0; ref < count; ref++) {
+                newOffsets[ref] = out.position();
+                Object object = objects.get((ref == 0) ? count - 1 : ref - 1);
+                if (object instanceof Container) {
+                    Container container = (Container) object;
+                    out.writeMarker(container.dict ? 0xd0 : 0xa0, container.dict ? container.refs.length / 2 : container.refs.length);
+                    for (int child : container.refs) {
+                        out.writeSized(child + 1, refSize);
+                    }
+                } else {
+                    out.write(((ByteBuffer) object).duplicate());
+                }
+            }
+            out.writeOffsetTableAndTrailer(newOffsets, count, refSize, 0);
+            out.flush();
+        }
+
+        /**
+         * @return Number of bytes of a leaf, including its marker
+         */
+        private static int leafLength(long[] header, long offset) throws IOException {
+            int marker = (int) header[0];
+            int headerLength = (int) (header[2] - offset);
+            switch (marker >> 4) {
+                case 0:
+                    return 1;
+                case 1:
+                case 2:
+                    return 1 + (1 << (marker & 0xf));
+                case 3:
+                    return 9;
+                case 4:
+                case 5:
+                    return headerLength + (int) header[1];
+                case 6:
+                    return headerLength + ((int) header[1] * 2);
+                case 8:
+                    return 2 + (marker & 0xf);
+                default:
+                    throw new IOException("optimize: illegal marker " + Integer.toBinaryString(marker));
+            }
+        }
+    }
+
+    /**
+     * Array or dict by the ids of its children. Dicts have their key ids
+     * first, followed by their value ids.
+     */
+    private static final class Container {
+        private final boolean dict;
+        private final int[] refs;
+
+        private Container(boolean dict, int[] refs) {
+            this.dict = dict;
+            this.refs = refs;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return (obj instanceof Container) && (((Container) obj).dict == dict) && Arrays.equals(((Container) obj).refs, refs);
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * Arrays.hashCode(refs)) + (dict ? 1 : 0);
+        }
+    }
+}
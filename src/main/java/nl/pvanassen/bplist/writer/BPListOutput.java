@@ -0,0 +1,296 @@
+package nl.pvanassen.bplist.writer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.*;
+
+/**
+ * Buffered big-endian output of bplist objects, keeping track of the
+ * position so offsets can be recorded. Writes to an {@link OutputStream} or
+ * a {@link WritableByteChannel}, both are flushed but never closed.
+ *
+ * @author Paul van Assen
+ */
+final class BPListOutput {
+    /** Time interval based dates are measured in seconds from 2001-01-01T00:00:00Z. */
+    static final long TIMER_INTERVAL_TIMEBASE = 978307200000L;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private final OutputStream out;
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long position;
+
+    /**
+     * @param out
+     *            Stream to write to
+     */
+    BPListOutput(OutputStream out) {
+        this.out = out;
+        this.channel = null;
+    }
+
+    /**
+     * @param channel
+     *            Channel to write to
+     * @param position
+     *            Position of the first byte written, offsets are counted from
+     *            here
+     */
+    BPListOutput(WritableByteChannel channel, long position) {
+        this.out = null;
+        this.channel = channel;
+        this.position = position;
+    }
+
+    /**
+     * @return Position of the next byte
+     */
+    long position() {
+        return position + buffer.position();
+    }
+
+    void writeHeader() throws IOException {
+        write("bplist00".getBytes("ASCII"));
+    }
+
+    void writeByte(int value) throws IOException {
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Writes an unsigned big-endian integer of the given width
+     */
+    void writeSized(long value, int size) throws IOException {
+        if (buffer.remaining() < size) {
+            drain();
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            buffer.put((byte) (value >> (8 * i)));
+        }
+    }
+
+    void write(byte[] bytes) throws IOException {
+        write(bytes, 0, bytes.length);
+    }
+
+    void write(byte[] bytes, int offset, int length) throws IOException {
+        int done = 0;
+        while (done < length) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            int chunk = Math.min(length - done, buffer.remaining());
+            buffer.put(bytes, offset + done, chunk);
+            done += chunk;
+        }
+    }
+
+    void write(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            int chunk = Math.min(bytes.remaining(), buffer.remaining());
+            ByteBuffer slice = bytes.duplicate();
+            slice.limit(slice.position() + chunk);
+            buffer.put(slice);
+            bytes.position(bytes.position() + chunk);
+        }
+    }
+
+    /**
+     * Writes the marker of an object with a count, followed by an int object
+     * for counts of 15 and up
+     *
+     * @param type
+     *            High nibble of the marker
+     * @param count
+     *            Number of bytes, characters, elements or entries
+     */
+    void writeMarker(int type, int count) throws IOException {
+        if (count < 15) {
+            writeByte(type | count);
+            return;
+        }
+        writeByte(type | 0xf);
+        writeLong(count);
+    }
+
+    /**
+     * Writes a leaf object: null, a string, an integer, a real, a boolean, a
+     * date, data as a byte buffer, or a uid
+     *
+     * @param value
+     *            Value as put in the object table by the writer
+     */
+    void writeValue(Object value) throws IOException {
+        if (value == null) {
+            writeByte(0x00);
+        } else if (value instanceof String) {
+            writeString((String) value);
+        } else if (value instanceof Long) {
+            writeLong((Long) value);
+        } else if (value instanceof Double) {
+            writeByte(0x23);
+            writeSized(Double.doubleToLongBits((Double) value), 8);
+        } else if (value instanceof Float) {
+            writeByte(0x22);
+            writeSized(Float.floatToIntBits((Float) value), 4);
+        } else if (value instanceof Boolean) {
+            writeByte(((Boolean) value) ? 0x09 : 0x08);
+        } else if (value instanceof Date) {
+            writeByte(0x33);
+            writeSized(Double.doubleToLongBits((((Date) value).getTime() - TIMER_INTERVAL_TIMEBASE) / 1000.0), 8);
+        } else if (value instanceof ByteBuffer) {
+            ByteBuffer data = ((ByteBuffer) value).duplicate();
+            writeMarker(0x40, data.remaining());
+            write(data);
+        } else if (value instanceof Uid) {
+            writeUid(((Uid) value).value);
+        } else {
+            throw new IllegalArgumentException("Unsupported type: " + value.getClass().getName());
+        }
+    }
+
+    /**
+     * Strings of 7 bit characters only are written as ASCII, others as
+     * UTF-16
+     */
+    void writeString(String value) throws IOException {
+        int length = value.length();
+        boolean ascii = true;
+        for (int i = 0; ascii && (i < length); i++) {
+            ascii = value.charAt(i) < 0x80;
+        }
+        if (ascii) {
+            writeMarker(0x50, length);
+            for (int i = 0; i < length; i++) {
+                writeByte(value.charAt(i));
+            }
+        } else {
+            writeMarker(0x60, length);
+            for (int i = 0; i < length; i++) {
+                writeSized(value.charAt(i), 2);
+            }
+        }
+    }
+
+    /**
+     * Integers of 1, 2 and 4 bytes are unsigned, negative values take 8 bytes
+     */
+    void writeLong(long value) throws IOException {
+        int size = (value < 0) ? 8 : intSize(value);
+        writeByte(0x10 | Integer.numberOfTrailingZeros(size));
+        writeSized(value, size);
+    }
+
+    /**
+     * The parser sign extends uids, so the width leaves room for a clear high
+     * bit. Like integers only widths of 1, 2 and 4 bytes are written.
+     */
+    void writeUid(int value) throws IOException {
+        int size = (value < 0) ? 4 : Math.min(4, intSize((long) value << 1));
+        writeByte(0x80 | (size - 1));
+        writeSized(value, size);
+    }
+
+    void writeRefs(int[] refs, int offset, int length, int refSize) throws IOException {
+        for (int i = offset; i < (offset + length); i++) {
+            writeSized(refs[i], refSize);
+        }
+    }
+
+    /**
+     * Writes the offset table and the trailer
+     *
+     * @param offsets
+     *            Offset of every object
+     * @param objectCount
+     *            Number of objects
+     * @param objectRefSize
+     *            Byte size of object refs
+     * @param topObject
+     *            Reference of the top level object
+     */
+    void writeOffsetTableAndTrailer(long[] offsets, int objectCount, int objectRefSize, long topObject) throws IOException {
+        long offsetTable = position();
+        int offsetIntSize = intSize(offsetTable);
+        for (int i = 0; i < objectCount; i++) {
+            writeSized(offsets[i], offsetIntSize);
+        }
+        writeTrailer(offsetIntSize, objectRefSize, objectCount, topObject, offsetTable);
+    }
+
+    void writeTrailer(int offsetIntSize, int objectRefSize, long objectCount, long topObject, long offsetTable) throws IOException {
+        writeSized(0, 6);
+        writeByte(offsetIntSize);
+        writeByte(objectRefSize);
+        writeSized(objectCount, 8);
+        writeSized(topObject, 8);
+        writeSized(offsetTable, 8);
+    }
+
+    /**
+     * Writes out the buffer and flushes the stream
+     */
+    void flush() throws IOException {
+        drain();
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        position += buffer.remaining();
+        if (out != null) {
+            out.write(buffer.array(), buffer.arrayOffset(), buffer.remaining());
+        } else {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Width of integers, object refs and offsets. Core Foundation and other
+     * readers only expect widths of 1, 2, 4 and 8 bytes.
+     *
+     * @param value
+     *            Unsigned value
+     * @return Smallest of 1, 2, 4 or 8 bytes holding the value
+     */
+    static int intSize(long value) {
+        int size = 1;
+        while ((size < 8) && ((value >>> (8 * size)) != 0)) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * Uid in the object table, so it is not taken for an integer
+     */
+    static final class Uid {
+        private final int value;
+
+        Uid(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return (obj instanceof Uid) && (((Uid) obj).value == value);
+        }
+
+        @Override
+        public int hashCode() {
+            return value;
+        }
+    }
+}
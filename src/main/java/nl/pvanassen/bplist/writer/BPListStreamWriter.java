@@ -0,0 +1,416 @@
+package nl.pvanassen.bplist.writer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Push style writer for bplists too large to build in memory first. Every
+ * object is written as soon as it is complete, so children come before the
+ * array or dict holding them and the top level object is written last. It
+ * still gets ref 0, like in bplists written by Apple.
+ * <p>
+ * Only the offset table and the refs of the arrays and dicts that are still
+ * open are kept, as longs of which only a block at a time stays on the heap.
+ * The rest goes to a temp file. Recently used dict keys are written once and
+ * shared. As the number of objects is not known up front, object refs have a
+ * fixed width, 4 bytes unless given otherwise. Offsets get the smallest width
+ * that fits.
+ * <p>
+ * {@link #close()} writes the offset table and the trailer. Not thread safe.
+ *
+ * <pre>
+ * try (BPListStreamWriter writer = new BPListStreamWriter(file)) {
+ *     writer.startDict();
+ *     writer.key("Tracks");
+ *     writer.startArray();
+ *     writer.value("Track 1");
+ *     writer.endArray();
+ *     writer.endDict();
+ * }
+ * </pre>
+ *
+ * @author Paul van Assen
+ */
+public class BPListStreamWriter implements Closeable {
+    private static final int DEFAULT_OBJECT_REF_SIZE = 4;
+    private static final int BLOCK_SIZE = 1 << 16;
+    private static final int KEY_CACHE_SIZE = 1024;
+    private final BPListOutput out;
+    private final FileChannel channel;
+    private final int objectRefSize;
+    private final SpillableLongArray offsets;
+    private final SpillableLongArray refs;
+    private final Map<String, Integer> keys = new LinkedHashMap<String, Integer>(KEY_CACHE_SIZE, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > KEY_CACHE_SIZE;
+        }
+    };
+    private boolean[] dicts = new boolean[16];
+    private long[] starts = new long[16];
+    private int depth;
+    private long topOffset = -1;
+    private boolean closed;
+
+    /**
+     * Writes to a stream with object refs of 4 bytes. The stream is flushed
+     * but not closed.
+     *
+     * @param out
+     *            Stream to write to
+     * @throws IOException
+     *             In case of an error
+     */
+    public BPListStreamWriter(OutputStream out) throws IOException {
+        this(new BPListOutput(out), null, DEFAULT_OBJECT_REF_SIZE, BLOCK_SIZE);
+    }
+
+    /**
+     * Writes to a stream. The stream is flushed but not closed.
+     *
+     * @param out
+     *            Stream to write to
+     * @param objectRefSize
+     *            Byte size of object refs, 1, 2 or 4
+     * @throws IOException
+     *             In case of an error
+     */
+    public BPListStreamWriter(OutputStream out, int objectRefSize) throws IOException {
+        this(new BPListOutput(out), null, checkObjectRefSize(objectRefSize), BLOCK_SIZE);
+    }
+
+    /**
+     * Writes to a file through a file channel, with object refs of 4 bytes
+     *
+     * @param file
+     *            File to write to, replacing its contents
+     * @throws IOException
+     *             In case of an error
+     */
+    public BPListStreamWriter(File file) throws IOException {
+        this(file, DEFAULT_OBJECT_REF_SIZE, BLOCK_SIZE);
+    }
+
+    /**
+     * Writes to a file through a file channel
+     *
+     * @param file
+     *            File to write to, replacing its contents
+     * @param objectRefSize
+     *            Byte size of object refs, 1, 2 or 4
+     * @throws IOException
+     *             In case of an error
+     */
+    public BPListStreamWriter(File file, int objectRefSize) throws IOException {
+        this(file, checkObjectRefSize(objectRefSize), BLOCK_SIZE);
+    }
+
+    BPListStreamWriter(File file, int objectRefSize, int blockSize) throws IOException {
+        this(FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), objectRefSize, blockSize);
+    }
+
+    private BPListStreamWriter(FileChannel channel, int objectRefSize, int blockSize) throws IOException {
+        this(new BPListOutput(channel, 0), channel, objectRefSize, blockSize);
+    }
+
+    BPListStreamWriter(BPListOutput out, FileChannel channel, int objectRefSize, int blockSize) throws IOException {
+        this.out = out;
+        this.channel = channel;
+        this.objectRefSize = objectRefSize;
+        offsets = new SpillableLongArray(blockSize);
+        refs = new SpillableLongArray(blockSize);
+        out.writeHeader();
+    }
+
+    /**
+     * Opens a dict, followed by a {@link #key(String)} and a value for every
+     * entry
+     *
+     * @throws IOException
+     *             In case of an error
+     */
+    public void startDict() throws IOException {
+        push(true);
+    }
+
+    /**
+     * Writes the key of the next entry of the current dict
+     *
+     * @param key
+     *            Key of the entry
+     * @throws IOException
+     *             In case of an error
+     */
+    public void key(String key) throws IOException {
+        if ((depth == 0) || !dicts[depth - 1] || (((refs.size() - starts[depth - 1]) % 2) != 0)) {
+            throw new IllegalStateException("Key not expected: " + key);
+        }
+        Integer ref = keys.get(key);
+        if (ref == null) {
+            ref = startObject(false);
+            out.writeString(key);
+            keys.put(key, ref);
+        }
+        refs.add(ref);
+    }
+
+    /**
+     * Writes the current dict
+     *
+     * @throws IOException
+     *             In case of an error
+     */
+    public void endDict() throws IOException {
+        if ((depth == 0) || !dicts[depth - 1]) {
+            throw new IllegalStateException("No dict open");
+        }
+        long start = starts[depth - 1];
+        long entries = refs.size() - start;
+        if ((entries % 2) != 0) {
+            throw new IllegalStateException("Value expected");
+        }
+        int ref = startObject(depth == 1);
+        out.writeMarker(0xd0, checkCount(entries / 2, "endDict"));
+        refs.writeTo(out, start, entries / 2, 2, objectRefSize);
+        refs.writeTo(out, start + 1, entries / 2, 2, objectRefSize);
+        pop(ref);
+    }
+
+    /**
+     * Opens an array
+     *
+     * @throws IOException
+     *             In case of an error
+     */
+    public void startArray() throws IOException {
+        push(false);
+    }
+
+    /**
+     * Writes the current array
+     *
+     * @throws IOException
+     *             In case of an error
+     */
+    public void endArray() throws IOException {
+        if ((depth == 0) || dicts[depth - 1]) {
+            throw new IllegalStateException("No array open");
+        }
+        long start = starts[depth - 1];
+        int ref = startObject(depth == 1);
+        out.writeMarker(0xa0, checkCount(refs.size() - start, "endArray"));
+        refs.writeTo(out, start, refs.size() - start, 1, objectRefSize);
+        pop(ref);
+    }
+
+    /**
+     * @param value
+     *            String to write, ASCII if possible and UTF-16 otherwise
+     * @throws IOException
+     *             In case of an error
+     */
+    public void value(String value) throws IOException {
+        checkValue();
+        int ref = startObject(depth == 0);
+        out.writeString(value);
+        added(ref);
+    }
+
+    /**
+     * @param value
+     *            Integer to write
+     * @throws IOException
+     *             In case of an error
+     */
+    public void value(long value) throws IOException {
+        checkValue();
+        int ref = startObject(depth == 0);
+        out.writeLong(value);
+        added(ref);
+    }
+
+    /**
+     * @param value
+     *            Real to write
+     * @throws IOException
+     *             In case of an error
+     */
+    public void value(double value) throws IOException {
+        leaf(value);
+    }
+
+    /**
+     * @param value
+     *            Boolean to write
+     * @throws IOException
+     *             In case of an error
+     */
+    public void value(boolean value) throws IOException {
+        leaf(value);
+    }
+
+    /**
+     * @param value
+     *            Date to write
+     * @throws IOException
+     *             In case of an error
+     */
+    public void value(Date value) throws IOException {
+        leaf(value);
+    }
+
+    /**
+     * @param value
+     *            Data to write
+     * @throws IOException
+     *             In case of an error
+     */
+    public void value(byte[] value) throws IOException {
+        leaf(ByteBuffer.wrap(value));
+    }
+
+    /**
+     * @param value
+     *            Uid to write
+     * @throws IOException
+     *             In case of an error
+     */
+    public void uid(int value) throws IOException {
+        leaf(new BPListOutput.Uid(value));
+    }
+
+    /**
+     * Writes the null object
+     *
+     * @throws IOException
+     *             In case of an error
+     */
+    public void nullValue() throws IOException {
+        leaf(null);
+    }
+
+    /**
+     * Writes the offset table and the trailer, and removes the temp files.
+     * Files opened by this writer are closed, streams are flushed.
+     *
+     * @throws IOException
+     *             In case of an error
+     * @throws IllegalStateException
+     *             If no top level object was written, or arrays or dicts are
+     *             still open
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if ((depth > 0) || (topOffset == -1)) {
+                throw new IllegalStateException("Incomplete bplist, " + depth + " arrays or dicts open");
+            }
+            long offsetTable = out.position();
+            int offsetIntSize = BPListOutput.intSize(offsetTable);
+            out.writeSized(topOffset, offsetIntSize);
+            offsets.writeTo(out, 0, offsets.size(), 1, offsetIntSize);
+            out.writeTrailer(offsetIntSize, objectRefSize, offsets.size() + 1, 0, offsetTable);
+            out.flush();
+        } finally {
+            offsets.close();
+            refs.close();
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    private static int checkObjectRefSize(int objectRefSize) {
+        if ((objectRefSize != 1) && (objectRefSize != 2) && (objectRefSize != 4)) {
+            throw new IllegalArgumentException("Illegal object ref size: " + objectRefSize);
+        }
+        return objectRefSize;
+    }
+
+    private void leaf(Object value) throws IOException {
+        checkValue();
+        int ref = startObject(depth == 0);
+        out.writeValue(value);
+        added(ref);
+    }
+
+    private void push(boolean dict) throws IOException {
+        checkValue();
+        if (depth == dicts.length) {
+            dicts = Arrays.copyOf(dicts, depth * 2);
+            starts = Arrays.copyOf(starts, depth * 2);
+        }
+        dicts[depth] = dict;
+        starts[depth++] = refs.size();
+    }
+
+    private void pop(int ref) throws IOException {
+        refs.truncate(starts[--depth]);
+        added(ref);
+    }
+
+    /**
+     * Checks that a value may follow
+     */
+    private void checkValue() {
+        if (closed) {
+            throw new IllegalStateException("Writer is closed");
+        }
+        if (depth == 0) {
+            if (topOffset != -1) {
+                throw new IllegalStateException("Top level object already written");
+            }
+        } else if (dicts[depth - 1] && (((refs.size() - starts[depth - 1]) % 2) == 0)) {
+            throw new IllegalStateException("Key expected");
+        }
+    }
+
+    /**
+     * Records the offset of the next object
+     *
+     * @param top
+     *            True for the top level object
+     * @return Reference of the next object
+     */
+    private int startObject(boolean top) throws IOException {
+        if (top) {
+            topOffset = out.position();
+            return 0;
+        }
+        long ref = offsets.size() + 1;
+        if ((objectRefSize < 4) && ((ref >>> (8 * objectRefSize)) != 0)) {
+            throw new IllegalStateException("Too many objects for object refs of " + objectRefSize + " bytes");
+        }
+        if (ref > Integer.MAX_VALUE) {
+            throw new IOException("startObject: too many objects for int refs");
+        }
+        offsets.add(out.position());
+        return (int) ref;
+    }
+
+    /**
+     * @return Number of elements or entries of an array or dict, checked to
+     *         fit an int
+     */
+    private static int checkCount(long count, String method) throws IOException {
+        if (count > Integer.MAX_VALUE) {
+            throw new IOException(method + ": " + count + " elements, more than fit an int");
+        }
+        return (int) count;
+    }
+
+    private void added(int ref) throws IOException {
+        if (depth > 0) {
+            refs.add(ref);
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package nl.pvanassen.bplist.writer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import nl.pvanassen.bplist.parser.*;
+
+/**
+ * Writes binary plists from a tree of parsed elements, or from plain Java
+ * objects:
+ * <ul>
+ * <li>{@link Map} with string keys becomes a dict</li>
+ * <li>{@link Collection} and object arrays become an array</li>
+ * <li>{@link CharSequence} becomes an ASCII string, or a UTF-16 string if it
+ * has characters outside of ASCII</li>
+ * <li>{@link Long}, {@link Integer}, {@link Short} and {@link Byte} become an
+ * integer</li>
+ * <li>{@link Double} and {@link Float} become a real</li>
+ * <li>{@link Boolean}, {@link Date} and byte arrays become a boolean, a date
+ * and data</li>
+ * <li>null becomes the null object</li>
+ * </ul>
+ * Equal strings, numbers, booleans, dates, data and uids are written once and
+ * shared. Object refs and offsets get the smallest width that fits.
+ * <p>
+ * Given a fork/join pool, the children of large arrays and dicts are encoded
+ * concurrently. The result is read the same as the sequential result and has
+ * the same number of objects, though in another order.
+ *
+ * @author Paul van Assen
+ */
+public class BPListWriter {
+    private static final int PARALLEL_THRESHOLD = 256;
+    private final int parallelThreshold;
+
+    /**
+     * Creates a writer encoding the children of arrays and dicts with at least
+     * {@value #PARALLEL_THRESHOLD} entries concurrently, when given a pool
+     */
+    public BPListWriter() {
+        this(PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * @param parallelThreshold
+     *            Arrays and dicts with at least this many entries have their
+     *            children encoded concurrently, in groups of this many, when
+     *            writing on a fork/join pool
+     */
+    public BPListWriter(int parallelThreshold) {
+        this.parallelThreshold = Math.max(1, parallelThreshold);
+    }
+
+    /**
+     * @param root
+     *            Top level object
+     * @return Bytes of the bplist
+     * @throws IOException
+     *             In case of an error
+     */
+    public byte[] toByteArray(Object root) throws IOException {
+        return toByteArray(root, null);
+    }
+
+    /**
+     * @param root
+     *            Top level object
+     * @param pool
+     *            Pool to encode on, or null to encode on the calling thread
+     * @return Bytes of the bplist
+     * @throws IOException
+     *             In case of an error
+     */
+    public byte[] toByteArray(Object root, ForkJoinPool pool) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(root, out, pool);
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes to a stream, the stream is flushed but not closed
+     *
+     * @param root
+     *            Top level object
+     * @param out
+     *            Stream to write to
+     * @throws IOException
+     *             In case of an error
+     */
+    public void write(Object root, OutputStream out) throws IOException {
+        write(root, out, null);
+    }
+
+    /**
+     * Writes to a stream, the stream is flushed but not closed
+     *
+     * @param root
+     *            Top level object
+     * @param out
+     *            Stream to write to
+     * @param pool
+     *            Pool to encode on, or null to encode on the calling thread
+     * @throws IOException
+     *             In case of an error
+     */
+    public void write(Object root, OutputStream out, ForkJoinPool pool) throws IOException {
+        write(root, new BPListOutput(out), pool);
+    }
+
+    /**
+     * Writes to a file through a file channel, replacing its contents
+     *
+     * @param root
+     *            Top level object
+     * @param file
+     *            File to write to
+     * @throws IOException
+     *             In case of an error
+     */
+    public void write(Object root, File file) throws IOException {
+        write(root, file, null);
+    }
+
+    /**
+     * Writes to a file through a file channel, replacing its contents
+     *
+     * @param root
+     *            Top level object
+     * @param file
+     *            File to write to
+     * @param pool
+     *            Pool to encode on, or null to encode on the calling thread
+     * @throws IOException
+     *             In case of an error
+     */
+    public void write(Object root, File file, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            write(root, channel, pool);
+        }
+    }
+
+    /**
+     * Writes to a channel, the channel is not closed
+     *
+     * @param root
+     *            Top level object
+     * @param channel
+     *            Channel to write to
+     * @throws IOException
+     *             In case of an error
+     */
+    public void write(Object root, WritableByteChannel channel) throws IOException {
+        write(root, channel, null);
+    }
+
+    /**
+     * Writes to a channel, the channel is not closed
+     *
+     * @param root
+     *            Top level object
+     * @param channel
+     *            Channel to write to
+     * @param pool
+     *            Pool to encode on, or null to encode on the calling thread
+     * @throws IOException
+     *             In case of an error
+     */
+    public void write(Object root, WritableByteChannel channel, ForkJoinPool pool) throws IOException {
+        write(root, new BPListOutput(channel, 0), pool);
+    }
+
+    private void write(Object root, BPListOutput out, ForkJoinPool pool) throws IOException {
+        if ((pool != null) && new ParallelEncoder(parallelThreshold).write(root, out, pool)) {
+            return;
+        }
+        ObjectTable objectTable = new ObjectTable();
+        objectTable.add(root);
+        List<Object> objects = objectTable.objects;
+        int objectRefSize = BPListOutput.intSize(objects.size() - 1);
+        long[] offsets = new long[objects.size()];
+        out.writeHeader();
+        for (int ref = 0; ref < objects.size(); ref++) {
+            offsets[ref] = out.position();
+            Object object = objects.get(ref);
+            if (object instanceof Container) {
+                Container container = (Container) object;
+                out.writeMarker(container.dict ? 0xd0 : 0xa0, container.dict ? container.refs.length / 2 : container.refs.length);
+                out.writeRefs(container.refs, 0, container.refs.length, objectRefSize);
+            } else {
+                out.writeValue(object);
+            }
+        }
+        out.writeOffsetTableAndTrailer(offsets, objects.size(), objectRefSize, 0);
+        out.flush();
+    }
+
+    /**
+     * Flattens the tree into objects numbered depth first, sharing equal
+     * leaves
+     */
+    static final class ObjectTable {
+        final List<Object> objects = new ArrayList<>();
+        private final Map<Object, Integer> leaves = new HashMap<>();
+        private final boolean appenderRefs;
+
+        ObjectTable() {
+            this(false);
+        }
+
+        /**
+         * @param appenderRefs
+         *            Accept {@link BPListAppender.Ref} values, which are kept
+         *            in the table as leaves
+         */
+        ObjectTable(boolean appenderRefs) {
+            this.appenderRefs = appenderRefs;
+        }
+
+        int add(Object value) {
+            if (appenderRefs && (value instanceof BPListAppender.Ref)) {
+                return addLeaf(value);
+            }
+            if (value instanceof BPListElement) {
+                return addElement((BPListElement<?>) value);
+            }
+            if (value instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) value;
+                int ref = reserve();
+                int[] refs = new int[map.size() * 2];
+                int index = 0;
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    if (!(entry.getKey() instanceof CharSequence)) {
+                        throw new IllegalArgumentException("Dict keys must be strings: " + entry.getKey());
+                    }
+                    refs[index] = addLeaf(entry.getKey().toString());
+                    refs[map.size() + index++] = add(entry.getValue());
+                }
+                objects.set(ref, new Container(true, refs));
+                return ref;
+            }
+            if (value instanceof Collection) {
+                Collection<?> collection = (Collection<?>) value;
+                int ref = reserve();
+                int[] refs = new int[collection.size()];
+                int index = 0;
+                for (Object element : collection) {
+                    refs[index++] = add(element);
+                }
+                objects.set(ref, new Container(false, refs));
+                return ref;
+            }
+            if (value instanceof Object[]) {
+                return add(Arrays.asList((Object[]) value));
+            }
+            return addLeaf(leaf(value));
+        }
+
+        private int addElement(BPListElement<?> element) {
+            BPListType type = element.getType();
+            if (type.isDict()) {
+                BPLDict dict = (BPLDict) element;
+                int ref = reserve();
+                int size = dict.size();
+                int[] refs = new int[size * 2];
+                for (int i = 0; i < size; i++) {
+                    refs[i] = addLeaf(dict.getKey(i));
+                }
+                for (int i = 0; i < size; i++) {
+                    refs[size + i] = add(dict.getValue(i));
+                }
+                objects.set(ref, new Container(true, refs));
+                return ref;
+            }
+            if (type.isArray()) {
+                BPLArray array = (BPLArray) element;
+                int ref = reserve();
+                int[] refs = new int[array.size()];
+                for (int i = 0; i < refs.length; i++) {
+                    refs[i] = add(array.get(i));
+                }
+                objects.set(ref, new Container(false, refs));
+                return ref;
+            }
+            if (type == BPListType.UID) {
+                return addLeaf(new BPListOutput.Uid(element.asUid()));
+            }
+            return addLeaf(leaf(element.getValue()));
+        }
+
+        private int reserve() {
+            objects.add(null);
+            return objects.size() - 1;
+        }
+
+        private int addLeaf(Object leaf) {
+            Integer ref = leaves.get(leaf);
+            if (ref == null) {
+                ref = objects.size();
+                objects.add(leaf);
+                leaves.put(leaf, ref);
+            }
+            return ref;
+        }
+
+        /**
+         * @return The value as written by {@link BPListOutput#writeValue(Object)}
+         */
+        static Object leaf(Object value) {
+            if ((value == null) || (value instanceof String) || (value instanceof Long) || (value instanceof Double) || (value instanceof Float)
+                    || (value instanceof Boolean) || (value instanceof Date)) {
+                return value;
+            }
+            if (value instanceof CharSequence) {
+                return value.toString();
+            }
+            if ((value instanceof Integer) || (value instanceof Short) || (value instanceof Byte)) {
+                return ((Number) value).longValue();
+            }
+            if (value instanceof byte[]) {
+                // Equal and hashed by content
+                return ByteBuffer.wrap((byte[]) value);
+            }
+            throw new IllegalArgumentException("Unsupported type: " + value.getClass().getName());
+        }
+    }
+
+    /**
+     * Array or dict in the object table. Dicts have their key refs first,
+     * followed by their value refs.
+     */
+    static final class Container {
+        final boolean dict;
+        final int[] refs;
+
+        Container(boolean dict, int[] refs) {
+            this.dict = dict;
+            this.refs = refs;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package nl.pvanassen.bplist.writer;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import nl.pvanassen.bplist.parser.*;
+
+/**
+ * Encodes a tree on a fork/join pool. Arrays and dicts with at least the
+ * threshold number of entries form the spine of the tree, their other
+ * children are split in chunks that are flattened and encoded concurrently,
+ * each into a buffer of its own with refs of its own.
+ * <p>
+ * A final pass on the calling thread numbers the objects of the chunks in
+ * order, copies the encoded leaves that were not seen before, and writes the
+ * arrays and dicts with their refs renumbered. Leaves stay shared across
+ * chunks, so the number of objects is the same as when writing sequentially.
+ *
+ * @author Paul van Assen
+ */
+final class ParallelEncoder {
+    private final int threshold;
+    private final List<Chunk> chunks = new ArrayList<>();
+    private final List<Spine> spines = new ArrayList<>();
+    private final Map<Object, Integer> leaves = new HashMap<>();
+    private long[] offsets;
+    private int next;
+
+    /**
+     * @param threshold
+     *            Minimum number of entries of a spine array or dict, and the
+     *            number of children per chunk
+     */
+    ParallelEncoder(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * @param root
+     *            Top level object
+     * @param out
+     *            Output to write to
+     * @param pool
+     *            Pool to encode on
+     * @return False if the top level object is too small to split, nothing is
+     *         written in that case
+     * @throws IOException
+     *             In case of an error
+     */
+    boolean write(Object root, BPListOutput out, ForkJoinPool pool) throws IOException {
+        Spine top = spine(root);
+        if (top == null) {
+            return false;
+        }
+        try {
+            pool.invoke(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    invokeAll(chunks);
+                }
+            });
+        } catch (RuntimeException e) {
+            throw rethrow(e);
+        }
+
+        int capacity = 0;
+        for (Spine spine : spines) {
+            capacity += spine.keys.size() + 1;
+        }
+        for (Chunk chunk : chunks) {
+            capacity += chunk.objects.size();
+        }
+        offsets = new long[capacity];
+        out.writeHeader();
+        top.ref = next++;
+        number(top, out);
+
+        int objectRefSize = BPListOutput.intSize(next - 1);
+        for (Chunk chunk : chunks) {
+            writeContainers(chunk, out, objectRefSize);
+        }
+        for (Spine spine : spines) {
+            offsets[spine.ref] = out.position();
+            out.writeMarker(spine.dict ? 0xd0 : 0xa0, spine.children.size());
+            out.writeRefs(spine.refs, 0, spine.refs.length, objectRefSize);
+        }
+        out.writeOffsetTableAndTrailer(offsets, next, objectRefSize, 0);
+        out.flush();
+        return true;
+    }
+
+    /**
+     * Builds the spine below a value and puts its other children in chunks
+     *
+     * @return Spine node, or null if the value is no array or dict with at
+     *         least the threshold number of entries
+     */
+    private Spine spine(Object value) {
+        List<String> keys = new ArrayList<>();
+        List<?> values;
+        boolean dict;
+        if (value instanceof BPListElement) {
+            BPListElement<?> element = (BPListElement<?>) value;
+            if (element.getType().isDict()) {
+                BPLDict bplDict = (BPLDict) element;
+                if (bplDict.size() < threshold) {
+                    return null;
+                }
+                List<Object> dictValues = new ArrayList<>(bplDict.size());
+                for (int i = 0; i < bplDict.size(); i++) {
+                    keys.add(bplDict.getKey(i));
+                    dictValues.add(bplDict.getValue(i));
+                }
+                values = dictValues;
+                dict = true;
+            } else if (element.getType().isArray()) {
+                BPLArray array = (BPLArray) element;
+                if (array.size() < threshold) {
+                    return null;
+                }
+                List<Object> arrayValues = new ArrayList<>(array.size());
+                for (int i = 0; i < array.size(); i++) {
+                    arrayValues.add(array.get(i));
+                }
+                values = arrayValues;
+                dict = false;
+            } else {
+                return null;
+            }
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            if (map.size() < threshold) {
+                return null;
+            }
+            List<Object> mapValues = new ArrayList<>(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (!(entry.getKey() instanceof CharSequence)) {
+                    throw new IllegalArgumentException("Dict keys must be strings: " + entry.getKey());
+                }
+                keys.add(entry.getKey().toString());
+                mapValues.add(entry.getValue());
+            }
+            values = mapValues;
+            dict = true;
+        } else if ((value instanceof Collection) || (value instanceof Object[])) {
+            values = (value instanceof Collection) ? new ArrayList<>((Collection<?>) value) : Arrays.asList((Object[]) value);
+            if (values.size() < threshold) {
+                return null;
+            }
+            dict = false;
+        } else {
+            return null;
+        }
+
+        Spine spine = new Spine(dict, keys);
+        spines.add(spine);
+        Chunk chunk = null;
+        for (Object child : values) {
+            Spine childSpine = spine(child);
+            if (childSpine != null) {
+                spine.children.add(childSpine);
+                chunk = null;
+                continue;
+            }
+            if ((chunk == null) || (chunk.roots.size() == threshold)) {
+                chunk = new Chunk();
+                chunks.add(chunk);
+            }
+            spine.children.add(new Slot(chunk, chunk.roots.size()));
+            chunk.roots.add(child);
+        }
+        return spine;
+    }
+
+    /**
+     * Numbers the objects below a spine node depth first, writing the leaves
+     * not seen before
+     */
+    private void number(Spine spine, BPListOutput out) throws IOException {
+        int keyCount = spine.keys.size();
+        spine.refs = new int[keyCount + spine.children.size()];
+        for (int i = 0; i < keyCount; i++) {
+            String key = spine.keys.get(i);
+            Integer ref = leaves.get(key);
+            if (ref == null) {
+                ref = next++;
+                leaves.put(key, ref);
+                offsets[ref] = out.position();
+                out.writeString(key);
+            }
+            spine.refs[i] = ref;
+        }
+        for (int i = 0; i < spine.children.size(); i++) {
+            Object child = spine.children.get(i);
+            if (child instanceof Spine) {
+                Spine childSpine = (Spine) child;
+                childSpine.ref = next++;
+                number(childSpine, out);
+                spine.refs[keyCount + i] = childSpine.ref;
+            } else {
+                Slot slot = (Slot) child;
+                if (slot.chunk.global == null) {
+                    number(slot.chunk, out);
+                }
+                spine.refs[keyCount + i] = slot.chunk.global[slot.chunk.rootRefs[slot.index]];
+            }
+        }
+    }
+
+    /**
+     * Maps the refs of a chunk to refs in the file
+     */
+    private void number(Chunk chunk, BPListOutput out) throws IOException {
+        List<Object> objects = chunk.objects;
+        int[] global = new int[objects.size()];
+        for (int ref = 0; ref < global.length; ref++) {
+            Object object = objects.get(ref);
+            if (object instanceof BPListWriter.Container) {
+                global[ref] = next++;
+                continue;
+            }
+            Integer shared = leaves.get(object);
+            if (shared == null) {
+                shared = next++;
+                leaves.put(object, shared);
+                offsets[shared] = out.position();
+                out.write(chunk.encoded, chunk.starts[ref], chunk.ends[ref] - chunk.starts[ref]);
+            }
+            global[ref] = shared;
+        }
+        chunk.global = global;
+    }
+
+    private void writeContainers(Chunk chunk, BPListOutput out, int objectRefSize) throws IOException {
+        List<Object> objects = chunk.objects;
+        for (int ref = 0; ref < objects.size(); ref++) {
+            Object object = objects.get(ref);
+            if (!(object instanceof BPListWriter.Container)) {
+                continue;
+            }
+            BPListWriter.Container container = (BPListWriter.Container) object;
+            offsets[chunk.global[ref]] = out.position();
+            out.writeMarker(container.dict ? 0xd0 : 0xa0, container.dict ? container.refs.length / 2 : container.refs.length);
+            for (int child : container.refs) {
+                out.writeSized(chunk.global[child], objectRefSize);
+            }
+        }
+    }
+
+    /**
+     * Finds the IO exception a task failed with, exceptions of tasks may have
+     * been wrapped more than once on the way back
+     */
+    private static IOException rethrow(RuntimeException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return (IOException) cause;
+            }
+        }
+        throw e;
+    }
+
+    /**
+     * Large array or dict, written by the final pass
+     */
+    private static final class Spine {
+        private final boolean dict;
+        private final List<String> keys;
+        private final List<Object> children = new ArrayList<>();
+        private int ref;
+        private int[] refs;
+
+        private Spine(boolean dict, List<String> keys) {
+            this.dict = dict;
+            this.keys = keys;
+        }
+    }
+
+    /**
+     * Child of a spine node encoded in a chunk
+     */
+    private static final class Slot {
+        private final Chunk chunk;
+        private final int index;
+
+        private Slot(Chunk chunk, int index) {
+            this.chunk = chunk;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Children of spine nodes flattened and encoded together
+     */
+    private static final class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<Object> roots = new ArrayList<>();
+        private int[] rootRefs;
+        private List<Object> objects;
+        private byte[] encoded;
+        private int[] starts;
+        private int[] ends;
+        private int[] global;
+
+        @Override
+        protected void compute() {
+            BPListWriter.ObjectTable objectTable = new BPListWriter.ObjectTable();
+            rootRefs = new int[roots.size()];
+            for (int i = 0; i < rootRefs.length; i++) {
+                rootRefs[i] = objectTable.add(roots.get(i));
+            }
+            objects = objectTable.objects;
+            starts = new int[objects.size()];
+            ends = new int[objects.size()];
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            BPListOutput out = new BPListOutput(bytes);
+            try {
+                for (int ref = 0; ref < objects.size(); ref++) {
+                    Object object = objects.get(ref);
+                    if (!(object instanceof BPListWriter.Container)) {
+                        starts[ref] = (int) out.position();
+                        out.writeValue(object);
+                        ends[ref] = (int) out.position();
+                    }
+                }
+                out.flush();
+            } catch (IOException e) {
+                throw new RuntimeException("Error encoding objects", e);
+            }
+            encoded = bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package nl.pvanassen.bplist.writer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Growable array of longs that keeps only its last block on the heap. Full
+ * blocks are written to a temp file, which is created when the first block
+ * is full. Values can be read back by index and the array can shrink, so it
+ * serves both as a list and as a stack.
+ *
+ * @author Paul van Assen
+ */
+final class SpillableLongArray implements Closeable {
+    private static final int READ_AHEAD = 1 << 13;
+    private final long[] block;
+    private long blockStart;
+    private int blockFill;
+    private FileChannel spill;
+    private ByteBuffer blockBuffer;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_AHEAD * 8);
+    private long readStart;
+    private int readCount;
+
+    /**
+     * @param blockSize
+     *            Number of values kept on the heap
+     */
+    SpillableLongArray(int blockSize) {
+        if ((blockSize < 1) || (blockSize > (Integer.MAX_VALUE / 8))) {
+            throw new IllegalArgumentException("Illegal block size: " + blockSize);
+        }
+        block = new long[blockSize];
+    }
+
+    long size() {
+        return blockStart + blockFill;
+    }
+
+    void add(long value) throws IOException {
+        if (blockFill == block.length) {
+            spillBlock();
+        }
+        block[blockFill++] = value;
+    }
+
+    long get(long index) throws IOException {
+        if ((index < 0) || (index >= size())) {
+            throw new IOException("get: index " + index + " not in array of " + size());
+        }
+        if (index >= blockStart) {
+            return block[(int) (index - blockStart)];
+        }
+        if ((index < readStart) || (index >= (readStart + readCount))) {
+            readAhead(index, (int) Math.min(READ_AHEAD, blockStart - index));
+        }
+        return readBuffer.getLong((int) (index - readStart) * 8);
+    }
+
+    /**
+     * Drops the values from the given size on
+     *
+     * @param size
+     *            New size
+     * @throws IOException
+     *             In case of an error reading a spilled block back, or if
+     *             the size is larger than the current one
+     */
+    void truncate(long size) throws IOException {
+        if ((size < 0) || (size > size())) {
+            throw new IOException("truncate: size " + size + " not in array of " + size());
+        }
+        if (size >= blockStart) {
+            blockFill = (int) (size - blockStart);
+            return;
+        }
+        // Read the block holding the new end back from the file
+        long start = (size / block.length) * block.length;
+        int fill = (int) (size - start);
+        blockBuffer.clear();
+        blockBuffer.limit(fill * 8);
+        readFully(blockBuffer, start * 8);
+        blockBuffer.flip();
+        blockBuffer.asLongBuffer().get(block, 0, fill);
+        blockStart = start;
+        blockFill = fill;
+        readCount = 0;
+    }
+
+    /**
+     * Writes values as unsigned big-endian integers of the given width
+     *
+     * @param out
+     *            Output to write to
+     * @param from
+     *            Index of the first value
+     * @param count
+     *            Number of values
+     * @param stride
+     *            Distance between the indexes of two values
+     * @param size
+     *            Byte size of every value
+     * @throws IOException
+     *             In case of an error
+     */
+    void writeTo(BPListOutput out, long from, long count, int stride, int size) throws IOException {
+        for (long i = 0; i < count; i++) {
+            out.writeSized(get(from + (i * stride)), size);
+        }
+    }
+
+    /**
+     * Removes the temp file, if any. The channel is opened with
+     * {@link StandardOpenOption#DELETE_ON_CLOSE}, so closing it is enough.
+     */
+    @Override
+    public void close() throws IOException {
+        if (spill != null) {
+            spill.close();
+            spill = null;
+        }
+    }
+
+    private void spillBlock() throws IOException {
+        if (spill == null) {
+            File file = File.createTempFile("bplist", ".spill");
+            spill = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+            blockBuffer = ByteBuffer.allocate(block.length * 8);
+        }
+        blockBuffer.clear();
+        blockBuffer.asLongBuffer().put(block, 0, blockFill);
+        blockBuffer.limit(blockFill * 8);
+        long position = blockStart * 8;
+        while (blockBuffer.hasRemaining()) {
+            position += spill.write(blockBuffer, position);
+        }
+        blockStart += blockFill;
+        blockFill = 0;
+        readCount = 0;
+    }
+
+    private void readAhead(long index, int count) throws IOException {
+        readBuffer.clear();
+        readBuffer.limit(count * 8);
+        readFully(readBuffer, index * 8);
+        readStart = index;
+        readCount = count;
+    }
+
+    private void readFully(ByteBuffer bytes, long position) throws IOException {
+        while (bytes.hasRemaining()) {
+            int read = spill.read(bytes, position);
+            if (read == -1) {
+                throw new EOFException("Spilled values missing at position " + position);
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package nl.pvanassen.bplist;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import nl.pvanassen.bplist.converter.ConvertToXml;
+import nl.pvanassen.bplist.parser.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Guards the bytes allocated per operation on the hot paths. Every operation
+ * is warmed up first, so the JIT has done its work, and then measured with
+ * the allocation counter of the current thread. Budgets are about twice the
+ * measured allocation, enough for differences between JVMs but not for an
+ * extra object per element.
+ */
+public class AllocationBudgetTest {
+    private static final int WARMUP = 200;
+    private static final int ITERATIONS = 100;
+    private static com.sun.management.ThreadMXBean threads;
+    private final ConvertToXml convertToXml = new ConvertToXml();
+    private final ElementParser elementParser = new ElementParser();
+
+    private interface Operation {
+        void run() throws IOException;
+    }
+
+    @BeforeClass
+    public static void checkSupport() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    private static long allocated(Operation operation) throws IOException {
+        for (int i = 0; i < WARMUP; i++) {
+            operation.run();
+        }
+        long thread = Thread.currentThread().getId();
+        long start = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < ITERATIONS; i++) {
+            operation.run();
+        }
+        return (threads.getThreadAllocatedBytes(thread) - start) / ITERATIONS;
+    }
+
+    private static void assertBudget(String name, long budget, Operation operation) throws IOException {
+        long bytes = allocated(operation);
+        assertTrue(name + " allocated " + bytes + " bytes per operation, budget is " + budget, bytes <= budget);
+    }
+
+    private void assertParseBudget(String baseName, long objectTableBudget, long documentBudget) throws IOException {
+        final byte[] bplist = FileHelper.getBytes(baseName + ".bplist");
+        assertBudget("parseObjectTable " + baseName, objectTableBudget, new Operation() {
+            @Override
+            public void run() throws IOException {
+                elementParser.parseObjectTable(bplist, 0, bplist.length);
+            }
+        });
+        assertBudget("parseDocument " + baseName, documentBudget, new Operation() {
+            @Override
+            public void run() throws IOException {
+                elementParser.parseDocument(ByteBuffer.wrap(bplist)).getTopObject();
+            }
+        });
+    }
+
+    private void assertConvertBudget(String baseName, long budget) throws IOException {
+        byte[] bplist = FileHelper.getBytes(baseName + ".bplist");
+        final List<BPListElement<?>> objectTable = elementParser.parseObjectTable(bplist, 0, bplist.length);
+        assertBudget("convertToXml " + baseName, budget, new Operation() {
+            @Override
+            public void run() throws IOException {
+                convertToXml.convertToXml(objectTable);
+            }
+        });
+    }
+
+    @Test
+    public void testParse() throws IOException {
+        assertParseBudget("airplay", 1600, 1024);
+        assertParseBudget("iTunes-small", 60000, 1024);
+        assertParseBudget("sample1", 1600, 1024);
+        assertParseBudget("sample2", 1400, 1024);
+        assertParseBudget("uid", 2000, 1024);
+        assertParseBudget("utf16", 3000, 1400);
+    }
+
+    @Test
+    public void testConvert() throws IOException {
+        assertConvertBudget("airplay", 20000);
+        assertConvertBudget("iTunes-small", 2000000);
+        assertConvertBudget("sample1", 24000);
+        assertConvertBudget("sample2", 20000);
+        assertConvertBudget("uid", 28000);
+        assertConvertBudget("utf16", 60000);
+    }
+
+    @Test
+    public void testDictLookup() throws IOException {
+        byte[] bplist = FileHelper.getBytes("iTunes-small.bplist");
+        final BPLDict top = (BPLDict) elementParser.parseObjectTable(bplist, 0, bplist.length).get(0);
+        final BPLDict track = (BPLDict) ((BPLDict) top.get("Tracks")).get("194");
+        assertBudget("get", 64, new Operation() {
+            @Override
+            public void run() throws IOException {
+                track.get("Play Date");
+                track.containsKey("No such key");
+                track.getLong("Play Date", -1);
+                top.getBoolean("Show Content Ratings", false);
+            }
+        });
+        assertBudget("getValue", 4000, new Operation() {
+            @Override
+            public void run() throws IOException {
+                track.getValue();
+            }
+        });
+        final BPListDocument document = elementParser.parseDocument(ByteBuffer.wrap(bplist));
+        final BPListCursor cursor = document.cursor();
+        assertBudget("cursor", 0, new Operation() {
+            @Override
+            public void run() throws IOException {
+                cursor.reset();
+                cursor.moveToChild("Tracks");
+                cursor.moveToChild("194");
+                cursor.moveToChild("Play Date");
+                cursor.longValue();
+            }
+        });
+    }
+}
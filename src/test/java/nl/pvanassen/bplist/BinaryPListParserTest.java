@@ -1,10 +1,13 @@
 package nl.pvanassen.bplist;
 
-import java.io.IOException;
-import java.util.List;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
 
-import nl.pvanassen.bplist.converter.ConvertToXml;
+import nl.pvanassen.bplist.converter.*;
 import nl.pvanassen.bplist.ext.nanoxml.XMLElement;
+import nl.pvanassen.bplist.generator.BPListGenerator;
 import nl.pvanassen.bplist.parser.*;
 
 import org.junit.*;
@@ -13,6 +16,8 @@ import static org.junit.Assert.*;
 public class BinaryPListParserTest {
     private final ConvertToXml convetToXml = new ConvertToXml();
     private final ElementParser elementParser = new ElementParser();
+    private final StreamingXmlConverter streamingXmlConverter = new StreamingXmlConverter();
+    private final XMLElementWriter xmlElementWriter = new XMLElementWriter();
 
     private void test(String baseName) throws IOException {
         List<BPListElement<?>> elements = elementParser.parseObjectTable(FileHelper.getFile(baseName + ".bplist"));
@@ -20,7 +25,543 @@ public class BinaryPListParserTest {
         assertNotNull(xmlElement);
         assertEquals(FileHelper.getContent(baseName + ".result"), xmlElement.getChildren().get(0).toString());
     }
+
+    @Test
+    public void testMapped() throws IOException {
+        for (String baseName : FileHelper.FIXTURES) {
+            List<BPListElement<?>> mapped = elementParser.parseObjectTableMapped(FileHelper.getFile(baseName + ".bplist"));
+            assertEquals(baseName, FileHelper.getContent(baseName + ".result"), convetToXml.convertToXml(mapped).getChildren().get(0).toString());
+        }
+    }
+
+    @Test
+    public void testDocument() throws IOException {
+        for (String baseName : FileHelper.FIXTURES) {
+            String expected = FileHelper.getContent(baseName + ".result");
+            File file = FileHelper.getFile(baseName + ".bplist");
+            assertEquals(baseName, expected, convetToXml.convertToXml(elementParser.parseDocument(file)).getChildren().get(0).toString());
+            assertEquals(baseName, expected, convetToXml.convertToXml(file).getChildren().get(0).toString());
+        }
+    }
+
+    @Test
+    public void testStreamingFixtures() throws IOException {
+        for (String baseName : FileHelper.FIXTURES) {
+            String plist = "<plist version=\"1.0\">" + FileHelper.getContent(baseName + ".result") + "</plist>";
+            File file = FileHelper.getFile(baseName + ".bplist");
+            StringWriter writer = new StringWriter();
+            streamingXmlConverter.convert(elementParser.parseDocument(file), writer);
+            assertEquals(baseName, plist, writer.toString());
+            writer = new StringWriter();
+            streamingXmlConverter.convert(elementParser.parseObjectTable(file), writer);
+            assertEquals(baseName, plist, writer.toString());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            streamingXmlConverter.convert(file, out);
+            assertEquals(baseName, plist, out.toString("US-ASCII"));
+        }
+    }
+
+    @Test
+    public void testXMLElementWriterFixtures() throws IOException {
+        for (String baseName : FileHelper.FIXTURES) {
+            XMLElement xmlElement = convetToXml.convertToXml(elementParser.parseObjectTable(FileHelper.getFile(baseName + ".bplist")));
+            assertEquals(baseName, FileHelper.getContent(baseName + ".result"), xmlElementWriter.toString(xmlElement.getChildren().get(0)));
+            assertEquals(baseName, xmlElement.toString(), new String(xmlElementWriter.toByteArray(xmlElement), "UTF-8"));
+        }
+    }
     
+    @Test
+    public void testInMemory() throws IOException {
+        String expected = FileHelper.getContent("airplay.result");
+        byte[] bplist = FileHelper.getBytes("airplay.bplist");
+        byte[] padded = new byte[bplist.length + 4];
+        System.arraycopy(bplist, 0, padded, 2, bplist.length);
+
+        assertEquals(expected, convetToXml.convertToXml(elementParser.parseObjectTable(padded, 2, bplist.length)).getChildren().get(0).toString());
+        ByteBuffer buffer = ByteBuffer.wrap(padded, 2, bplist.length).asReadOnlyBuffer();
+        assertEquals(expected, convetToXml.convertToXml(elementParser.parseObjectTable(buffer)).getChildren().get(0).toString());
+        assertEquals(2, buffer.position());
+        assertEquals(expected, convetToXml.convertToXml(elementParser.parseDocument(buffer)).getChildren().get(0).toString());
+        try (InputStream input = Thread.currentThread().getContextClassLoader().getResourceAsStream("airplay.bplist")) {
+            assertEquals(expected, convetToXml.convertToXml(elementParser.parseObjectTable(input)).getChildren().get(0).toString());
+        }
+
+        // Streams that say too little or too much is available
+        byte[] large = new BPListGenerator(42).objectCount(20000).generate();
+        assertTrue(large.length > 3 * 64 * 1024);
+        String largeExpected = convetToXml.convertToXml(elementParser.parseObjectTable(large, 0, large.length)).toString();
+        for (final int available : new int[] { 0, 1000, large.length + 1000 }) {
+            InputStream input = new ByteArrayInputStream(large) {
+                @Override
+                public synchronized int available() {
+                    return available;
+                }
+
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    return super.read(b, off, Math.min(len, 777));
+                }
+            };
+            assertEquals(largeExpected, convetToXml.convertToXml(elementParser.parseObjectTable(input)).toString());
+        }
+    }
+
+    @Test
+    public void testDictLookup() throws IOException {
+        BPListDocument document = elementParser.parseDocument(FileHelper.getFile("sample1.bplist"));
+        BPLDict dict = (BPLDict) document.getTopObject();
+        assertEquals("MyDictionary", dict.get("CFBundleName").getValue());
+        assertTrue(dict.containsKey("DCSDictionaryXSL"));
+        assertFalse(dict.containsKey("CFBundleExecutable"));
+        assertNull(dict.get("CFBundleExecutable"));
+        assertEquals("CFBundleDevelopmentRegion", dict.getKey(0));
+        assertEquals("English", dict.getValue(0).getValue());
+        assertEquals(dict.getValue().size(), dict.size());
+    }
+
+    @Test
+    public void testCursor() throws IOException {
+        BPListCursor cursor = elementParser.parseDocument(FileHelper.getFile("iTunes-small.bplist")).cursor();
+        assertTrue(cursor.moveToChild("Tracks"));
+        assertTrue(cursor.moveToChild("194"));
+        assertTrue(cursor.moveToChild("Name"));
+        assertEquals(BPListType.ASCII_STRING, cursor.type());
+        assertTrue(cursor.stringEquals("Foxy Lady"));
+        assertFalse(cursor.stringEquals("Foxy Lad"));
+        assertTrue(cursor.moveToParent());
+        assertTrue(cursor.moveToChild("Play Date"));
+        assertEquals(3348665607L, cursor.longValue());
+        assertTrue(cursor.moveToParent());
+        assertFalse(cursor.moveToChild("No such key"));
+        assertTrue(cursor.moveToParent());
+        assertTrue(cursor.moveToParent());
+        assertFalse(cursor.moveToParent());
+        assertTrue(cursor.moveToChild("Application Version"));
+        assertEquals("9.0.3", cursor.stringValue());
+    }
+
+    @Test
+    public void testCursorChecks() throws IOException {
+        // {k: [5, "a"]}, the 5 is at 16 and its ref at 14
+        byte[] bplist = smallBPList(1);
+        bplist[16] = (byte) 0x80;
+        bplist[17] = (byte) 0xff;
+        BPListCursor cursor = elementParser.parseDocument(ByteBuffer.wrap(bplist)).cursor();
+        assertTrue(cursor.moveToChild("k"));
+        assertTrue(cursor.moveToChild(0));
+        assertEquals(BPListType.UID, cursor.type());
+        BPLArray array = (BPLArray) ((BPLDict) elementParser.parseObjectTable(bplist, 0, bplist.length).get(0)).get("k");
+        assertEquals(array.get(0).asUid(), cursor.uidValue());
+        assertEquals(-1, cursor.uidValue());
+
+        for (int marker : new int[] { 0x0f, 0x01, 0x70, 0x90, 0x34, 0xc1, 0xe0, 0xf0 }) {
+            bplist[16] = (byte) marker;
+            cursor = elementParser.parseDocument(ByteBuffer.wrap(bplist)).cursor();
+            assertTrue(cursor.moveToChild("k"));
+            try {
+                cursor.moveToChild(0);
+                fail("Illegal marker " + Integer.toHexString(marker));
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+
+        bplist = smallBPList(1);
+        bplist[14] = 5;
+        cursor = elementParser.parseDocument(ByteBuffer.wrap(bplist)).cursor();
+        assertTrue(cursor.moveToChild("k"));
+        try {
+            cursor.moveToChild(0);
+            fail("Ref past the object table");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testWalker() throws IOException {
+        for (String baseName : FileHelper.FIXTURES) {
+            BPListDocument document = elementParser.parseDocument(FileHelper.getFile(baseName + ".bplist"));
+            RecordingHandler handler = new RecordingHandler();
+            new BPListWalker().walk(document, handler);
+            StringBuilder expected = new StringBuilder("(");
+            record(document.getTopObject(), expected);
+            assertEquals(expected.append(')').toString(), handler.events.toString());
+        }
+    }
+
+    private static void record(BPListElement<?> element, StringBuilder events) {
+        if (element instanceof BPLDict) {
+            BPLDict dict = (BPLDict) element;
+            events.append("{").append(dict.size());
+            for (int i = 0; i < dict.size(); i++) {
+                events.append(" ").append(dict.getKey(i)).append("=");
+                record(dict.getValue(i), events);
+            }
+            events.append("}");
+        } else if (element.getValue() instanceof List) {
+            List<?> array = (List<?>) element.getValue();
+            events.append("[").append(array.size());
+            for (Object child : array) {
+                record((BPListElement<?>) child, events);
+            }
+            events.append("]");
+        } else if (element.getValue() instanceof byte[]) {
+            events.append(Arrays.toString((byte[]) element.getValue()));
+        } else {
+            events.append(element.getValue());
+        }
+    }
+
+    private static class RecordingHandler implements BPListHandler {
+        private final StringBuilder events = new StringBuilder();
+
+        public void startDocument() {
+            events.append("(");
+        }
+
+        public void endDocument() {
+            events.append(")");
+        }
+
+        public void startDict(int count) {
+            events.append("{").append(count);
+        }
+
+        public void key(String key) {
+            events.append(" ").append(key).append("=");
+        }
+
+        public void endDict() {
+            events.append("}");
+        }
+
+        public void startArray(int count) {
+            events.append("[").append(count);
+        }
+
+        public void endArray() {
+            events.append("]");
+        }
+
+        public void nullValue() {
+            events.append("null");
+        }
+
+        public void booleanValue(boolean value) {
+            events.append(value);
+        }
+
+        public void longValue(long value) {
+            events.append(value);
+        }
+
+        public void floatValue(float value) {
+            events.append(value);
+        }
+
+        public void doubleValue(double value) {
+            events.append(value);
+        }
+
+        public void string(String value) {
+            events.append(value);
+        }
+
+        public void data(byte[] value) {
+            events.append(Arrays.toString(value));
+        }
+
+        public void date(Date value) {
+            events.append(value);
+        }
+
+        public void uid(int value) {
+            events.append(value);
+        }
+    }
+
+    @Test
+    public void testParallel() throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (String baseName : FileHelper.FIXTURES) {
+                String expected = FileHelper.getContent(baseName + ".result");
+                File file = FileHelper.getFile(baseName + ".bplist");
+                assertEquals(expected, convetToXml.convertToXml(elementParser.parseObjectTable(file, pool)).getChildren().get(0).toString());
+                assertEquals(expected, convetToXml.convertToXml(elementParser.parseObjectTable(file, executor)).getChildren().get(0).toString());
+                List<BPListElement<?>> elements = elementParser.parseObjectTable(file, pool);
+                assertEquals(expected, convetToXml.convertToXml(elements, pool).getChildren().get(0).toString());
+                assertEquals(expected, new ConvertToXml(2).convertToXml(elements, pool).getChildren().get(0).toString());
+                // Lazy objects read the file from several threads at once
+                assertEquals(expected, new ConvertToXml(2).convertToXml(elementParser.parseObjectTable(file), pool).getChildren().get(0).toString());
+            }
+        } finally {
+            pool.shutdown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testTopObjectRef() throws IOException {
+        // The top level dict is the last of 7 objects
+        File file = FileHelper.getFile("toplast.bplist");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (BPListObjectTable objectTable : new BPListObjectTable[] { elementParser.parseObjectTable(file), elementParser.parseObjectTableMapped(file), elementParser.parseObjectTable(file, executor), elementParser.parseDocument(file).getObjectTable() }) {
+                assertEquals(6, objectTable.getTopObjectRef());
+                assertEquals("top last", ((BPLDict) objectTable.get(objectTable.getTopObjectRef())).get("name").getValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(0, elementParser.parseObjectTable(FileHelper.getFile("sample1.bplist")).getTopObjectRef());
+    }
+
+    @Test
+    public void testContainersShared() throws IOException {
+        List<BPListElement<?>> objectTable = elementParser.parseObjectTable(FileHelper.getFile("iTunes-small.bplist"));
+        BPLDict top = (BPLDict) objectTable.get(0);
+        assertSame(top, objectTable.get(0));
+        BPLDict tracks = (BPLDict) top.get("Tracks");
+        assertSame(tracks, top.get("Tracks"));
+        assertSame(tracks.get("194"), tracks.get("194"));
+    }
+
+    @Test
+    public void testConvertTopObject() throws IOException {
+        String expected = FileHelper.getContent("toplast.result");
+        File file = FileHelper.getFile("toplast.bplist");
+        assertEquals(expected, convetToXml.convertToXml(elementParser.parseObjectTable(file)).getChildren().get(0).toString());
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            assertEquals(expected, convetToXml.convertToXml(elementParser.parseObjectTable(file), pool).getChildren().get(0).toString());
+            assertEquals(expected, convetToXml.convertToXml(elementParser.parseObjectTable(file, pool), pool).getChildren().get(0).toString());
+        } finally {
+            pool.shutdown();
+        }
+
+        String plist = "<plist version=\"1.0\">" + expected + "</plist>";
+        StringWriter writer = new StringWriter();
+        streamingXmlConverter.convert(elementParser.parseObjectTable(file), writer);
+        assertEquals(plist, writer.toString());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        streamingXmlConverter.convert(elementParser.parseObjectTable(file), out);
+        assertEquals(plist, out.toString("US-ASCII"));
+        writer = new StringWriter();
+        streamingXmlConverter.convert(elementParser.parseDocument(file), writer);
+        assertEquals(plist, writer.toString());
+    }
+
+    @Test
+    public void testKeyInterner() throws IOException {
+        KeyInterner interner = new KeyInterner(1024);
+        ElementParser first = new ElementParser(interner);
+        ElementParser second = new ElementParser(interner);
+        for (String baseName : FileHelper.FIXTURES) {
+            String expected = FileHelper.getContent(baseName + ".result");
+            File file = FileHelper.getFile(baseName + ".bplist");
+            assertEquals(expected, convetToXml.convertToXml(first.parseObjectTable(file)).getChildren().get(0).toString());
+            assertEquals(expected, convetToXml.convertToXml(second.parseDocument(file)).getChildren().get(0).toString());
+        }
+        File file = FileHelper.getFile("iTunes-small.bplist");
+        BPLDict firstDict = (BPLDict) first.parseDocument(file).getTopObject();
+        BPLDict secondDict = (BPLDict) second.parseObjectTable(file).get(0);
+        assertEquals("Application Version", firstDict.getKey(0));
+        assertSame(firstDict.getKey(0), secondDict.getKey(0));
+        assertTrue(secondDict.containsKey("Tracks"));
+
+        // {key: 5} with a UTF-16 key of 0x40000001 characters, twice that overflows an int
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("bplist00".getBytes("ASCII"));
+        out.write(new byte[] { (byte) 0xd1, 1, 2, 0x6f, 0x12, 0x40, 0, 0, 1, 0x10, 5, 8, 11, 17 });
+        out.write(new byte[] { 0, 0, 0, 0, 0, 0, 1, 1 });
+        writeSized(out, 3, 8);
+        writeSized(out, 0, 8);
+        writeSized(out, 19, 8);
+        byte[] bplist = out.toByteArray();
+        BPLDict dict = (BPLDict) first.parseObjectTable(bplist, 0, bplist.length).get(0);
+        try {
+            dict.containsKey("k");
+            fail("Key longer than the bplist");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testLazyString() throws IOException {
+        BPLDict dict = (BPLDict) elementParser.parseObjectTable(FileHelper.getFile("utf16.bplist")).get(0);
+        BPListString copyright = (BPListString) dict.get("NSHumanReadableCopyright");
+        assertEquals(BPListType.UNICODE_STRING, copyright.getType());
+        assertEquals(27, copyright.length());
+        assertEquals('\u00a9', copyright.charAt(0));
+        assertTrue(copyright.contentEquals("\u00a92008-2012, sellStuff, Inc."));
+        assertFalse(copyright.contentEquals("(c)2008-2012, sellStuff, Inc."));
+        assertEquals("\u00a92008-2012, sellStuff, Inc.".hashCode(), copyright.hashCode());
+        assertEquals("\u00a92008-2012, sellStuff, Inc.", copyright.getValue());
+        assertSame(copyright.getValue(), copyright.getValue());
+
+        BPListString name = (BPListString) dict.get("CFBundleName");
+        BPListString executable = (BPListString) dict.get("CFBundleExecutable");
+        BPListString identifier = (BPListString) dict.get("CFBundleIdentifier");
+        assertEquals(BPListType.ASCII_STRING, name.getType());
+        assertEquals("sellStuff", name.subSequence(0, 9).toString());
+        assertEquals(name, executable);
+        assertEquals(name.hashCode(), executable.hashCode());
+        assertFalse(name.equals(identifier));
+        assertEquals("com.sellStuff.iphone", identifier.toString());
+    }
+
+    @Test
+    public void testPrimitives() throws IOException {
+        File file = FileHelper.getFile("iTunes-small.bplist");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        BPLDict decoded = (BPLDict) elementParser.parseObjectTable(file, executor).get(0);
+        executor.shutdown();
+        for (BPLDict top : new BPLDict[] { (BPLDict) elementParser.parseObjectTable(file).get(0), (BPLDict) elementParser.parseDocument(file).getTopObject(), decoded }) {
+            BPLDict track = (BPLDict) ((BPLDict) top.get("Tracks")).get("194");
+            assertEquals(3348665607L, track.getLong("Play Date", -1));
+            assertEquals(3348665607L, track.get("Play Date").asLong());
+            assertEquals(3348665607.0, track.getDouble("Play Date", -1), 0);
+            assertEquals(-1, track.getLong("No such key", -1));
+            assertTrue(top.getBoolean("Show Content Ratings", false));
+            try {
+                track.getLong("Name", -1);
+                fail("Name is no number");
+            } catch (IllegalStateException e) {
+                // Expected
+            }
+        }
+
+        BPLDict status = (BPLDict) elementParser.parseObjectTable(FileHelper.getFile("airplay.bplist")).get(0);
+        assertEquals(5555.0495, status.getDouble("duration", 0), 0.00001);
+        assertEquals(5555, status.getLong("duration", 0));
+        assertTrue(status.getBoolean("readyToPlay", false));
+        assertFalse(status.get("playbackBufferFull").asBoolean());
+
+        BPLDict archive = (BPLDict) elementParser.parseObjectTable(FileHelper.getFile("uid.bplist")).get(0);
+        assertEquals(1, ((BPLDict) archive.get("$top")).getUid("root", -1));
+        assertEquals(100000, archive.getLong("$version", 0));
+        BPLArray objects = (BPLArray) archive.get("$objects");
+        BPLArray keys = (BPLArray) ((BPLDict) objects.get(1)).get("NS.keys");
+        assertEquals(3, keys.size());
+        assertEquals(2, keys.getUid(0));
+        assertEquals(4, keys.get(2).asUid());
+    }
+
+    @Test
+    public void testRefAndOffsetWidths() throws IOException {
+        for (int size : new int[] { 1, 2, 3, 4, 8 }) {
+            byte[] bplist = smallBPList(size);
+            List<BPListElement<?>> objectTable = elementParser.parseObjectTable(bplist, 0, bplist.length);
+            assertTrue(objectTable.get(0).getType().isDict());
+            List<?> array = (List<?>) ((BPLDict) objectTable.get(0)).getValue(0).getValue();
+            assertEquals(5L, ((BPListElement<?>) array.get(0)).getValue());
+            assertEquals("a", ((BPListElement<?>) array.get(1)).getValue());
+            BPListDocument document = elementParser.parseDocument(ByteBuffer.wrap(bplist));
+            assertTrue(((BPLDict) document.getTopObject()).get("k").getType().isArray());
+            BPListCursor cursor = document.cursor();
+            assertTrue(cursor.moveToChild("k"));
+            assertTrue(cursor.moveToChild(0));
+            assertEquals(5, cursor.longValue());
+        }
+    }
+
+    @Test
+    public void testGenerator() throws IOException {
+        BPListGenerator generator = new BPListGenerator(42).objectCount(20000).depth(6).unicodeRatio(0.3).fanIn(0.2);
+        byte[] bplist = generator.generate();
+        assertArrayEquals(bplist, new BPListGenerator(42).objectCount(20000).depth(6).unicodeRatio(0.3).fanIn(0.2).generate());
+        assertFalse(Arrays.equals(bplist, new BPListGenerator(43).objectCount(20000).depth(6).unicodeRatio(0.3).fanIn(0.2).generate()));
+
+        List<BPListElement<?>> objectTable = elementParser.parseObjectTable(bplist, 0, bplist.length);
+        assertEquals(20000, objectTable.size());
+        String expected = convetToXml.convertToXml(objectTable).toString();
+        assertEquals(expected, convetToXml.convertToXml(elementParser.parseDocument(ByteBuffer.wrap(bplist))).toString());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(expected, convetToXml.convertToXml(elementParser.parseObjectTable(ByteBuffer.wrap(bplist), pool), pool).toString());
+        } finally {
+            pool.shutdown();
+        }
+
+        for (int size : new int[] { 3, 4, 8 }) {
+            byte[] wide = new BPListGenerator(42).objectCount(300).objectRefSize(size).offsetIntSize(size).generate();
+            assertEquals(size, wide[wide.length - 26]);
+            assertEquals(size, wide[wide.length - 25]);
+            byte[] narrow = new BPListGenerator(42).objectCount(300).generate();
+            assertEquals(convetToXml.convertToXml(elementParser.parseObjectTable(narrow, 0, narrow.length)).toString(), convetToXml.convertToXml(elementParser.parseObjectTable(wide, 0, wide.length)).toString());
+        }
+    }
+
+    @Test
+    public void testStreamingConverter() throws IOException {
+        byte[] bplist = new BPListGenerator(7).objectCount(20000).depth(6).unicodeRatio(0.3).fanIn(0.2).generate();
+        List<BPListElement<?>> objectTable = elementParser.parseObjectTable(bplist, 0, bplist.length);
+        String expected = convetToXml.convertToXml(objectTable).toString();
+
+        final List<Integer> flushes = new ArrayList<>();
+        final StringWriter text = new StringWriter();
+        Writer writer = new FilterWriter(text) {
+            @Override
+            public void flush() {
+                flushes.add(text.getBuffer().length());
+            }
+        };
+        streamingXmlConverter.convert(elementParser.parseDocument(ByteBuffer.wrap(bplist)), writer);
+        assertEquals(expected, text.toString());
+        // Written in chunks, flushed after each
+        assertTrue(flushes.size() > (expected.length() / 16384));
+        assertEquals(expected.length(), (int) flushes.get(flushes.size() - 1));
+        assertTrue(flushes.get(0) < expected.length());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        streamingXmlConverter.convert(objectTable, out);
+        assertEquals(expected, out.toString("US-ASCII"));
+    }
+
+    /**
+     * Builds {k: [5, "a"]} with object refs and offsets of the given width
+     */
+    private static byte[] smallBPList(int size) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("bplist00".getBytes("ASCII"));
+        long[] offsets = new long[5];
+        offsets[0] = out.size();
+        out.write(0xd1);
+        writeSized(out, 1, size);
+        writeSized(out, 2, size);
+        offsets[1] = out.size();
+        out.write(new byte[] { 0x51, 'k' });
+        offsets[2] = out.size();
+        out.write(0xa2);
+        writeSized(out, 3, size);
+        writeSized(out, 4, size);
+        offsets[3] = out.size();
+        out.write(new byte[] { 0x10, 5 });
+        offsets[4] = out.size();
+        out.write(new byte[] { 0x51, 'a' });
+        long offsetTable = out.size();
+        for (long offset : offsets) {
+            writeSized(out, offset, size);
+        }
+        out.write(new byte[6]);
+        out.write(size);
+        out.write(size);
+        writeSized(out, offsets.length, 8);
+        writeSized(out, 0, 8);
+        writeSized(out, offsetTable, 8);
+        return out.toByteArray();
+    }
+
+    private static void writeSized(OutputStream out, long value, int size) throws IOException {
+        for (int i = size - 1; i >= 0; i--) {
+            out.write((int) (value >> (8 * i)));
+        }
+    }
+
     @Test
     public void testAirplay() throws IOException {
         test("airplay");
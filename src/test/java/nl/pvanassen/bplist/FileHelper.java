@@ -4,10 +4,19 @@ import java.io.*;
 import java.net.*;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
+import java.util.*;
 
-import org.apache.commons.io.IOUtils;
+import nl.pvanassen.bplist.converter.ConvertToXml;
+import nl.pvanassen.bplist.parser.ElementParser;
+
+import org.apache.commons.io.*;
+
+public class FileHelper {
+    /**
+     * Base names of the fixtures that come with a .bplist and a .result
+     */
+    public static final List<String> FIXTURES = Collections.unmodifiableList(Arrays.asList("airplay", "iTunes-small", "sample1", "sample2", "uid", "utf16"));
 
-class FileHelper {
     private FileHelper() {
 
     }
@@ -18,7 +27,7 @@ class FileHelper {
      * @param resource Resouce url normally used to getResourceAsStream
      * @return Random access file
      */
-    static File getFile(String resource) {
+    public static File getFile(String resource) {
         URL url = Thread.currentThread().getContextClassLoader().getResource(resource);
         try {
             if (url.getProtocol().equals("file")) {
@@ -56,11 +65,41 @@ class FileHelper {
         }
     }
 
-    static String getContent(String resource) throws IOException {
-        try (InputStream input = Thread.currentThread().getContextClassLoader().getResourceAsStream(resource);
-                ByteArrayOutputStream output = new ByteArrayOutputStream()) {
-            IOUtils.copy(input, output);
-            return new String(output.toByteArray());
+    public static String getContent(String resource) throws IOException {
+        return new String(getBytes(resource));
+    }
+
+    public static byte[] getBytes(String resource) throws IOException {
+        try (InputStream input = Thread.currentThread().getContextClassLoader().getResourceAsStream(resource)) {
+            return IOUtils.toByteArray(input);
         }
     }
+
+    /**
+     * @param resource Resource to copy
+     * @return New temp file with the contents of the resource, for tests that change it
+     */
+    public static File copy(String resource) throws IOException {
+        File file = File.createTempFile("bplist", ".bplist");
+        try (InputStream input = Thread.currentThread().getContextClassLoader().getResourceAsStream(resource)) {
+            FileUtils.copyInputStreamToFile(input, file);
+        }
+        return file;
+    }
+
+    /**
+     * @param file bplist file
+     * @return XML of the top level object, as in the .result fixtures
+     */
+    public static String toXml(File file) throws IOException {
+        return new ConvertToXml().convertToXml(new ElementParser().parseDocument(file)).getChildren().get(0).toString();
+    }
+
+    /**
+     * @param bplist Contents of a bplist
+     * @return XML of the top level object, as in the .result fixtures
+     */
+    public static String toXml(byte[] bplist) throws IOException {
+        return new ConvertToXml().convertToXml(new ElementParser().parseDocument(ByteBuffer.wrap(bplist))).getChildren().get(0).toString();
+    }
 }
@@ -0,0 +1,38 @@
+package nl.pvanassen.bplist.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import nl.pvanassen.bplist.ext.base64.Base64;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures {@link Base64#encodeBytes(byte[], int)} as used for data objects
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class Base64Benchmark {
+    /**
+     * Small, medium and huge data objects
+     */
+    @Param({ "64", "65536", "16777216" })
+    public int bytes;
+
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        data = new byte[bytes];
+        new Random(42).nextBytes(data);
+    }
+
+    @Benchmark
+    public String encodeBytes() {
+        return Base64.encodeBytes(data, Base64.DONT_BREAK_LINES);
+    }
+}
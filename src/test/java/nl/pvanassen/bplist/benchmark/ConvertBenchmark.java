@@ -0,0 +1,68 @@
+package nl.pvanassen.bplist.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.*;
+
+import nl.pvanassen.bplist.converter.*;
+import nl.pvanassen.bplist.ext.nanoxml.XMLElement;
+import nl.pvanassen.bplist.parser.*;
+
+import org.apache.commons.io.output.NullWriter;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures {@link ConvertToXml#convertToXml(List)} of a parsed object table,
+ * sequentially and on a fork/join pool with as many threads as processors,
+ * and {@link StreamingXmlConverter} writing the XML text of a parsed object
+ * table and of a random access document
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConvertBenchmark {
+    @Param({ "small", "medium", "huge" })
+    public String size;
+
+    private final ConvertToXml convertToXml = new ConvertToXml();
+    private final StreamingXmlConverter streamingXmlConverter = new StreamingXmlConverter();
+    private final ForkJoinPool pool = new ForkJoinPool();
+    private List<BPListElement<?>> objects;
+    private BPListDocument document;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] bplist = Inputs.bplist(size);
+        objects = new ElementParser().parseObjectTable(bplist, 0, bplist.length);
+        document = new ElementParser().parseDocument(ByteBuffer.wrap(bplist));
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public XMLElement convertToXml() throws IOException {
+        return convertToXml.convertToXml(objects);
+    }
+
+    @Benchmark
+    public XMLElement convertToXmlParallel() throws IOException {
+        return convertToXml.convertToXml(objects, pool);
+    }
+
+    @Benchmark
+    public void streamObjectTable() throws IOException {
+        streamingXmlConverter.convert(objects, NullWriter.NULL_WRITER);
+    }
+
+    @Benchmark
+    public void streamDocument() throws IOException {
+        streamingXmlConverter.convert(document, NullWriter.NULL_WRITER);
+    }
+}
@@ -0,0 +1,36 @@
+package nl.pvanassen.bplist.benchmark;
+
+import java.io.*;
+
+import nl.pvanassen.bplist.FileHelper;
+import nl.pvanassen.bplist.generator.BPListGenerator;
+
+/**
+ * Inputs of the benchmarks by size
+ */
+final class Inputs {
+    private Inputs() {
+
+    }
+
+    /**
+     * @param size
+     *            small for the airplay fixture, medium for the iTunes-small
+     *            fixture, huge for a generated bplist of a million objects
+     * @return Bytes of the bplist
+     * @throws IOException
+     *             In case of an error
+     */
+    static byte[] bplist(String size) throws IOException {
+        switch (size) {
+            case "small":
+                return FileHelper.getBytes("airplay.bplist");
+            case "medium":
+                return FileHelper.getBytes("iTunes-small.bplist");
+            case "huge":
+                return new BPListGenerator(1).objectCount(1000000).depth(5).fanIn(0.2).generate();
+            default:
+                throw new IllegalArgumentException("Unknown size: " + size);
+        }
+    }
+}
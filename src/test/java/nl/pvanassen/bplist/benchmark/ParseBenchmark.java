@@ -0,0 +1,47 @@
+package nl.pvanassen.bplist.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nl.pvanassen.bplist.parser.*;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link ElementParser#parseObjectTable(byte[], int, int)} on its
+ * own, and followed by decoding every object of the table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParseBenchmark {
+    @Param({ "small", "medium", "huge" })
+    public String size;
+
+    private final ElementParser parser = new ElementParser();
+    private byte[] bplist;
+
+    @Setup
+    public void setup() throws IOException {
+        bplist = Inputs.bplist(size);
+    }
+
+    @Benchmark
+    public List<BPListElement<?>> parseObjectTable() throws IOException {
+        return parser.parseObjectTable(bplist, 0, bplist.length);
+    }
+
+    @Benchmark
+    public void parseAndDecode(Blackhole blackhole) throws IOException {
+        List<BPListElement<?>> objects = parser.parseObjectTable(bplist, 0, bplist.length);
+        for (int ref = 0; ref < objects.size(); ref++) {
+            BPListElement<?> object = objects.get(ref);
+            blackhole.consume((object == null) ? null : object.getValue());
+        }
+    }
+}
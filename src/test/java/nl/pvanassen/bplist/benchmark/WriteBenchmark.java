@@ -0,0 +1,50 @@
+package nl.pvanassen.bplist.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+
+import nl.pvanassen.bplist.parser.*;
+import nl.pvanassen.bplist.writer.BPListWriter;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures {@link BPListWriter} on a parsed element tree, on the calling
+ * thread and on a fork/join pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WriteBenchmark {
+    @Param({ "small", "medium", "huge" })
+    public String size;
+
+    private final BPListWriter writer = new BPListWriter();
+    private BPListElement<?> top;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] bplist = Inputs.bplist(size);
+        top = new ElementParser().parseObjectTable(bplist, 0, bplist.length).get(0);
+        pool = new ForkJoinPool();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public byte[] sequential() throws IOException {
+        return writer.toByteArray(top);
+    }
+
+    @Benchmark
+    public byte[] parallel() throws IOException {
+        return writer.toByteArray(top, pool);
+    }
+}
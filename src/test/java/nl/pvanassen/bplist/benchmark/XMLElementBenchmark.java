@@ -0,0 +1,66 @@
+package nl.pvanassen.bplist.benchmark;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import nl.pvanassen.bplist.converter.*;
+import nl.pvanassen.bplist.ext.nanoxml.XMLElement;
+import nl.pvanassen.bplist.parser.ElementParser;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures serializing a converted plist with {@link XMLElement#write(Writer)}
+ * and {@link XMLElement#toString()}, and with {@link XMLElementWriter} to a
+ * writer, a string and UTF-8 bytes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class XMLElementBenchmark {
+    @Param({ "small", "medium", "huge" })
+    public String size;
+
+    private final XMLElementWriter xmlElementWriter = new XMLElementWriter();
+    private XMLElement element;
+    private StringWriter writer;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] bplist = Inputs.bplist(size);
+        element = new ConvertToXml().convertToXml(new ElementParser().parseObjectTable(bplist, 0, bplist.length));
+        writer = new StringWriter();
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        writer.getBuffer().setLength(0);
+        element.write(writer);
+        return writer.getBuffer().length();
+    }
+
+    @Benchmark
+    public String toXmlString() {
+        return element.toString();
+    }
+
+    @Benchmark
+    public int writerWrite() throws IOException {
+        writer.getBuffer().setLength(0);
+        xmlElementWriter.write(element, writer);
+        return writer.getBuffer().length();
+    }
+
+    @Benchmark
+    public String writerToString() {
+        return xmlElementWriter.toString(element);
+    }
+
+    @Benchmark
+    public byte[] writerToByteArray() {
+        return xmlElementWriter.toByteArray(element);
+    }
+}
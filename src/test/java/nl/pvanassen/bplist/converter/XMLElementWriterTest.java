@@ -0,0 +1,97 @@
+package nl.pvanassen.bplist.converter;
+
+import java.io.*;
+import java.util.*;
+
+import nl.pvanassen.bplist.ext.nanoxml.XMLElement;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class XMLElementWriterTest {
+    private final XMLElementWriter xmlElementWriter = new XMLElementWriter();
+
+    private static XMLElement element(XMLElement parent, String name, String content) {
+        XMLElement element = parent.createAnotherElement();
+        element.setName(name);
+        element.setContent(content);
+        parent.addChild(element);
+        return element;
+    }
+
+    @Test
+    public void testEscapes() throws IOException {
+        XMLElement root = new XMLElement(new HashMap<String, char[]>(), false, false);
+        root.setName("plist");
+        root.setAttribute("version", "1.0 <\"'&>");
+        XMLElement dict = element(root, "dict", null);
+        element(dict, "key", "tab\tline\nend\u007f");
+        element(dict, "string", "\u00e9\u0100\u65e5\ud83d\ude00 <a href='x'>&amp;</a>");
+        element(dict, "string", "");
+        element(dict, "array", null);
+        element(dict, "\u00fcml", "plain");
+
+        // Long enough to take several buffers
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 50000) {
+            text.append("abc\ud83d\ude00<");
+        }
+        element(dict, "string", text.toString());
+
+        String expected = root.toString();
+        assertEquals(expected, xmlElementWriter.toString(root));
+        StringWriter writer = new StringWriter();
+        xmlElementWriter.write(root, writer);
+        assertEquals(expected, writer.toString());
+        StringBuffer buffer = new StringBuffer();
+        xmlElementWriter.write(root, buffer);
+        assertEquals(expected, buffer.toString());
+        assertArrayEquals(expected.getBytes("UTF-8"), xmlElementWriter.toByteArray(root));
+        assertTrue(expected.contains("&#xd83d;&#xde00;"));
+        assertTrue(expected.contains("<\u00fcml>plain</\u00fcml>"));
+    }
+
+    @Test
+    public void testFlushOnce() throws IOException {
+        XMLElement root = new XMLElement(new HashMap<String, char[]>(), false, false);
+        root.setName("array");
+        for (int i = 0; i < 5000; i++) {
+            element(root, "string", "value " + i);
+        }
+        String expected = root.toString();
+        assertTrue(expected.length() > 65536);
+
+        final int[] flushes = new int[2];
+        StringWriter text = new StringWriter();
+        xmlElementWriter.write(root, new FilterWriter(text) {
+            @Override
+            public void flush() {
+                flushes[0]++;
+            }
+        });
+        assertEquals(expected, text.toString());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        xmlElementWriter.write(root, new FilterOutputStream(bytes) {
+            @Override
+            public void flush() {
+                flushes[1]++;
+            }
+        });
+        assertEquals(expected, bytes.toString("UTF-8"));
+        // Written in several buffers, flushed only at the end
+        assertArrayEquals(new int[] { 1, 1 }, flushes);
+    }
+
+    @Test
+    public void testSurrogateOnBoundary() throws IOException {
+        // Markup is not escaped, so a name can put a surrogate pair on the end of the buffer
+        for (int pad = 8180; pad < 8200; pad++) {
+            XMLElement root = new XMLElement(new HashMap<String, char[]>(), false, false);
+            char[] name = new char[pad];
+            Arrays.fill(name, 'n');
+            root.setName(new String(name) + "\ud83d\ude00");
+            String expected = root.toString();
+            assertArrayEquals(expected.getBytes("UTF-8"), xmlElementWriter.toByteArray(root));
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package nl.pvanassen.bplist.generator;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Generates valid binary plists of a configurable shape, for tests and
+ * benchmarks on realistic sizes. The same seed and settings always give the
+ * same bytes.
+ * <p>
+ * The top level object is a dict. Every other object is added to a random
+ * array or dict that is not nested too deep, until the object count is
+ * reached. The n-th key of every dict is the same string object, like the
+ * repeated keys of an iTunes library. With fan-in, values refer to a leaf
+ * created before instead of a new one.
+ *
+ * @author Paul van Assen
+ */
+public class BPListGenerator {
+    private static final byte LEAF = 0;
+    private static final byte KEY = 1;
+    private static final byte ARRAY = 2;
+    private static final byte DICT = 3;
+    private final long seed;
+    private int objectCount = 1000;
+    private int depth = 4;
+    private double containerRatio = 0.1;
+    private int stringLength = 32;
+    private int dataLength = 64;
+    private double unicodeRatio = 0.1;
+    private double fanIn;
+    private int objectRefSize;
+    private int offsetIntSize;
+
+    /**
+     * @param seed
+     *            Seed of the random generators
+     */
+    public BPListGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param objectCount
+     *            Exact number of objects, keys included. Defaults to 1000.
+     * @return This generator
+     */
+    public BPListGenerator objectCount(int objectCount) {
+        if (objectCount < 1) {
+            throw new IllegalArgumentException("Object count must be positive: " + objectCount);
+        }
+        this.objectCount = objectCount;
+        return this;
+    }
+
+    /**
+     * @param depth
+     *            Maximum nesting depth, 1 puts all objects in the top level
+     *            dict. Defaults to 4.
+     * @return This generator
+     */
+    public BPListGenerator depth(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Depth must be positive: " + depth);
+        }
+        this.depth = depth;
+        return this;
+    }
+
+    /**
+     * @param containerRatio
+     *            Chance of a new object being an array or dict, as long as the
+     *            depth allows it. Defaults to 0.1.
+     * @return This generator
+     */
+    public BPListGenerator containerRatio(double containerRatio) {
+        this.containerRatio = containerRatio;
+        return this;
+    }
+
+    /**
+     * @param stringLength
+     *            Maximum number of characters of strings. Defaults to 32.
+     * @return This generator
+     */
+    public BPListGenerator stringLength(int stringLength) {
+        this.stringLength = stringLength;
+        return this;
+    }
+
+    /**
+     * @param dataLength
+     *            Maximum number of bytes of data objects. Defaults to 64.
+     * @return This generator
+     */
+    public BPListGenerator dataLength(int dataLength) {
+        this.dataLength = dataLength;
+        return this;
+    }
+
+    /**
+     * @param unicodeRatio
+     *            Chance of a string being UTF-16 instead of ASCII. Defaults
+     *            to 0.1.
+     * @return This generator
+     */
+    public BPListGenerator unicodeRatio(double unicodeRatio) {
+        this.unicodeRatio = unicodeRatio;
+        return this;
+    }
+
+    /**
+     * @param fanIn
+     *            Chance of a value referring to an existing leaf instead of a
+     *            new object. Defaults to 0.
+     * @return This generator
+     */
+    public BPListGenerator fanIn(double fanIn) {
+        if ((fanIn < 0) || (fanIn >= 1)) {
+            throw new IllegalArgumentException("Fan-in must be at least 0 and below 1: " + fanIn);
+        }
+        this.fanIn = fanIn;
+        return this;
+    }
+
+    /**
+     * @param objectRefSize
+     *            Byte size of object refs, 1 to 8, or 0 for the smallest size
+     *            that fits. Defaults to 0.
+     * @return This generator
+     */
+    public BPListGenerator objectRefSize(int objectRefSize) {
+        if ((objectRefSize < 0) || (objectRefSize > 8)) {
+            throw new IllegalArgumentException("Illegal object ref size: " + objectRefSize);
+        }
+        this.objectRefSize = objectRefSize;
+        return this;
+    }
+
+    /**
+     * @param offsetIntSize
+     *            Byte size of offsets, 1 to 8, or 0 for the smallest size that
+     *            fits. Defaults to 0.
+     * @return This generator
+     */
+    public BPListGenerator offsetIntSize(int offsetIntSize) {
+        if ((offsetIntSize < 0) || (offsetIntSize > 8)) {
+            throw new IllegalArgumentException("Illegal offset int size: " + offsetIntSize);
+        }
+        this.offsetIntSize = offsetIntSize;
+        return this;
+    }
+
+    /**
+     * @return Bytes of the generated bplist
+     * @throws IOException
+     *             In case of an error
+     */
+    public byte[] generate() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * @param file
+     *            File to write the generated bplist to
+     * @throws IOException
+     *             In case of an error
+     */
+    public void write(File file) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            write(out);
+        }
+    }
+
+    /**
+     * Writes the generated bplist. The stream is flushed, not closed.
+     *
+     * @param out
+     *            Stream to write to
+     * @throws IOException
+     *             In case of an error
+     */
+    public void write(OutputStream out) throws IOException {
+        new Shape().write(new Output(out));
+    }
+
+    /**
+     * Smallest of 1, 2, 4 and 8 bytes holding the value
+     */
+    private static int sizeOf(long value) {
+        if (value < (1L << 8)) {
+            return 1;
+        }
+        if (value < (1L << 16)) {
+            return 2;
+        }
+        if (value < (1L << 32)) {
+            return 4;
+        }
+        return 8;
+    }
+
+    private static boolean fits(long value, int size) {
+        return (size == 8) || (value < (1L << (8 * size)));
+    }
+
+    /**
+     * Kind, parent and children of every object
+     */
+    private class Shape {
+        private final byte[] kinds = new byte[objectCount];
+        private final int[] depths = new int[objectCount];
+        private final int[] counts = new int[objectCount];
+        private final IntList containers = new IntList();
+        private final IntList leaves = new IntList();
+        private final IntList keys = new IntList();
+        private final IntList parents = new IntList();
+        private final IntList children = new IntList();
+
+        private Shape() {
+            Random random = new Random(seed);
+            kinds[0] = DICT;
+            containers.add(0);
+            int created = 1;
+            while (created < objectCount) {
+                int parent = containers.get(random.nextInt(containers.size()));
+                if ((kinds[parent] == DICT) && (counts[parent] == keys.size())) {
+                    kinds[created] = KEY;
+                    keys.add(created++);
+                }
+                int child;
+                if (created == objectCount) {
+                    // No room left for a value, use the key as its own value
+                    child = keys.get(counts[parent]);
+                } else if ((leaves.size() > 0) && (random.nextDouble() < fanIn)) {
+                    child = leaves.get(random.nextInt(leaves.size()));
+                } else {
+                    child = created++;
+                    depths[child] = depths[parent] + 1;
+                    if ((depths[child] < depth) && (random.nextDouble() < containerRatio)) {
+                        kinds[child] = random.nextBoolean() ? ARRAY : DICT;
+                        containers.add(child);
+                    } else {
+                        kinds[child] = LEAF;
+                        leaves.add(child);
+                    }
+                }
+                parents.add(parent);
+                children.add(child);
+                counts[parent]++;
+            }
+        }
+
+        private void write(Output out) throws IOException {
+            // Group the children by parent, keeping their order
+            int[] start = new int[objectCount + 1];
+            for (int ref = 0; ref < objectCount; ref++) {
+                start[ref + 1] = start[ref] + counts[ref];
+            }
+            int[] fill = Arrays.copyOf(start, objectCount);
+            int[] grouped = new int[children.size()];
+            for (int i = 0; i < children.size(); i++) {
+                grouped[fill[parents.get(i)]++] = children.get(i);
+            }
+
+            int refSize = (objectRefSize == 0) ? sizeOf(objectCount - 1) : objectRefSize;
+            if (!fits(objectCount - 1, refSize)) {
+                throw new IllegalArgumentException("Object ref size " + refSize + " too small for " + objectCount + " objects");
+            }
+            Random random = new Random(~seed);
+            long[] offsets = new long[objectCount];
+            int key = 0;
+            out.writeBytes("bplist00");
+            for (int ref = 0; ref < objectCount; ref++) {
+                offsets[ref] = out.position;
+                switch (kinds[ref]) {
+                    case DICT:
+                        out.writeMarker(0xd0, counts[ref]);
+                        for (int entry = 0; entry < counts[ref]; entry++) {
+                            out.writeSized(keys.get(entry), refSize);
+                        }
+                        for (int i = start[ref]; i < start[ref + 1]; i++) {
+                            out.writeSized(grouped[i], refSize);
+                        }
+                        break;
+                    case ARRAY:
+                        out.writeMarker(0xa0, counts[ref]);
+                        for (int i = start[ref]; i < start[ref + 1]; i++) {
+                            out.writeSized(grouped[i], refSize);
+                        }
+                        break;
+                    case KEY:
+                        String name = "key" + key++;
+                        out.writeMarker(0x50, name.length());
+                        out.writeBytes(name);
+                        break;
+                    default:
+                        writeLeaf(out, random);
+                        break;
+                }
+            }
+
+            long offsetTable = out.position;
+            int offsetSize = (offsetIntSize == 0) ? sizeOf(offsetTable) : offsetIntSize;
+            if (!fits(offsetTable, offsetSize)) {
+                throw new IllegalArgumentException("Offset int size " + offsetSize + " too small for offset " + offsetTable);
+            }
+            for (long offset : offsets) {
+                out.writeSized(offset, offsetSize);
+            }
+            out.writeSized(0, 6);
+            out.writeSized(offsetSize, 1);
+            out.writeSized(refSize, 1);
+            out.writeSized(objectCount, 8);
+            out.writeSized(0, 8);
+            out.writeSized(offsetTable, 8);
+            out.flush();
+        }
+
+        private void writeLeaf(Output out, Random random) throws IOException {
+            switch (random.nextInt(10)) {
+                case 0:
+                case 1:
+                case 2:
+                case 3: {
+                    int length = random.nextInt(stringLength + 1);
+                    if (random.nextDouble() < unicodeRatio) {
+                        out.writeMarker(0x60, length);
+                        for (int i = 0; i < length; i++) {
+                            // Outside of the surrogates
+                            out.writeSized(0xa0 + random.nextInt(0xd800 - 0xa0), 2);
+                        }
+                    } else {
+                        out.writeMarker(0x50, length);
+                        for (int i = 0; i < length; i++) {
+                            out.writeSized(0x20 + random.nextInt(0x7f - 0x20), 1);
+                        }
+                    }
+                    break;
+                }
+                case 4:
+                case 5: {
+                    int power = random.nextInt(4);
+                    out.writeSized(0x10 | power, 1);
+                    out.writeSized(random.nextLong(), 1 << power);
+                    break;
+                }
+                case 6:
+                    out.writeSized(0x23, 1);
+                    out.writeSized(Double.doubleToLongBits(random.nextDouble() * 1000000), 8);
+                    break;
+                case 7:
+                    out.writeSized(random.nextBoolean() ? 0x09 : 0x08, 1);
+                    break;
+                case 8:
+                    out.writeSized(0x33, 1);
+                    out.writeSized(Double.doubleToLongBits(random.nextInt(1000000000)), 8);
+                    break;
+                default: {
+                    byte[] data = new byte[random.nextInt(dataLength + 1)];
+                    random.nextBytes(data);
+                    out.writeMarker(0x40, data.length);
+                    out.write(data);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Buffered output keeping track of its position
+     */
+    private static class Output {
+        private final OutputStream out;
+        private long position;
+
+        private Output(OutputStream out) {
+            this.out = new BufferedOutputStream(out, 1 << 16);
+        }
+
+        private void writeMarker(int type, int count) throws IOException {
+            if (count < 15) {
+                writeSized(type | count, 1);
+                return;
+            }
+            writeSized(type | 0xf, 1);
+            int size = sizeOf(count);
+            writeSized(0x10 | Integer.numberOfTrailingZeros(size), 1);
+            writeSized(count, size);
+        }
+
+        private void writeSized(long value, int size) throws IOException {
+            for (int i = size - 1; i >= 0; i--) {
+                out.write((int) (value >> (8 * i)));
+            }
+            position += size;
+        }
+
+        private void writeBytes(String value) throws IOException {
+            write(value.getBytes("ASCII"));
+        }
+
+        private void write(byte[] bytes) throws IOException {
+            out.write(bytes);
+            position += bytes.length;
+        }
+
+        private void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    /**
+     * Growable int array
+     */
+    private static class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private int get(int index) {
+            return values[index];
+        }
+
+        private int size() {
+            return size;
+        }
+    }
+}
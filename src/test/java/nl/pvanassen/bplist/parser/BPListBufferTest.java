@@ -0,0 +1,110 @@
+package nl.pvanassen.bplist.parser;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+
+import nl.pvanassen.bplist.FileHelper;
+import nl.pvanassen.bplist.converter.ConvertToXml;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BPListBufferTest {
+    private final ConvertToXml convertToXml = new ConvertToXml();
+    private final ElementParser elementParser = new ElementParser();
+
+    /**
+     * Splits the bytes in tiny segments, so markers, counts, refs, offsets and
+     * values all straddle segment borders somewhere
+     */
+    private static BPListBuffer segmented(byte[] bytes, int segmentShift) {
+        int segmentSize = 1 << segmentShift;
+        ByteBuffer[] segments = new ByteBuffer[((bytes.length + segmentSize) - 1) / segmentSize];
+        for (int i = 0; i < segments.length; i++) {
+            int offset = i * segmentSize;
+            segments[i] = ByteBuffer.wrap(bytes, offset, Math.min(segmentSize, bytes.length - offset)).slice();
+        }
+        return new BPListBuffer(segments, segmentShift);
+    }
+
+    @Test
+    public void testSegments() throws IOException, URISyntaxException {
+        for (String baseName : FileHelper.FIXTURES) {
+            String expected = FileHelper.getContent(baseName + ".result");
+            byte[] bytes = FileHelper.getBytes(baseName + ".bplist");
+            for (int segmentShift = 3; segmentShift <= 5; segmentShift++) {
+                BPListBuffer in = segmented(bytes, segmentShift);
+                assertEquals(bytes.length, in.length());
+                assertEquals(baseName, expected, convertToXml.convertToXml(elementParser.parseObjectTable(in)).getChildren().get(0).toString());
+            }
+            File file = new File(Thread.currentThread().getContextClassLoader().getResource(baseName + ".bplist").toURI());
+            BPListBuffer mapped = ElementParser.map(file, 4);
+            assertEquals(expected, convertToXml.convertToXml(elementParser.parseObjectTable(mapped)).getChildren().get(0).toString());
+        }
+    }
+
+    @Test
+    public void testStraddlingValues() throws IOException {
+        byte[] bytes = new byte[32];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        BPListBuffer in = segmented(bytes, 3);
+        in.seek(6);
+        assertEquals(0x06070809, in.readInt());
+        assertEquals(10, in.position());
+        in.seek(7);
+        assertEquals(0x0708090a0b0c0d0eL, in.readLong());
+        in.seek(15);
+        assertEquals((char) 0x0f10, in.readChar());
+        in.seek(5);
+        assertEquals(0x05060708090aL, in.readSized(6));
+
+        in.seek(4);
+        byte[] dst = new byte[12];
+        in.readFully(dst);
+        assertEquals(4, dst[0]);
+        assertEquals(15, dst[11]);
+
+        in.seek(6);
+        int[] refs = new int[3];
+        in.readRefs(refs, 0, 3, 2);
+        assertArrayEquals(new int[] { 0x0607, 0x0809, 0x0a0b }, refs);
+
+        in.seek(32);
+        assertEquals(-1, in.read());
+        in.seek(24);
+        assertEquals(24, in.position());
+        try {
+            in.seek(33);
+            fail("Seek past the end");
+        } catch (EOFException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testAbsoluteReads() throws IOException {
+        byte[] bytes = "bplist00 straddling segments".getBytes("US-ASCII");
+        BPListBuffer in = segmented(bytes, 3);
+        BPListBuffer duplicate = in.duplicate();
+        duplicate.seek(5);
+        assertEquals('t', in.getUnsignedByte(5));
+        assertEquals((char) (('0' << 8) | ' '), in.getChar(7));
+        assertEquals("straddling seg", in.getAscii(9, 14));
+        assertEquals("", in.getAscii(bytes.length, 0));
+        assertEquals(new String(new char[] { (char) (('t' << 8) | 'r'), (char) (('a' << 8) | 'd') }), in.getUtf16(10, 2));
+        // Absolute reads leave the read positions alone
+        assertEquals(0, in.position());
+        assertEquals(5, duplicate.position());
+        assertSame(in, duplicate.root());
+        assertSame(in, duplicate.duplicate().root());
+        try {
+            in.getChar(bytes.length - 1);
+            fail("Read past the end");
+        } catch (EOFException e) {
+            // Expected
+        }
+    }
+}
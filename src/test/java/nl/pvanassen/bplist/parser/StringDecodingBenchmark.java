@@ -0,0 +1,102 @@
+package nl.pvanassen.bplist.parser;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import nl.pvanassen.bplist.FileHelper;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decodes every string of a test fixture, laid out the given number of times
+ * in one buffer. The bulk decoders are compared with decoding a character at
+ * a time and looking up the ASCII charset by name.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StringDecodingBenchmark {
+    @Param({ "utf16", "iTunes-small" })
+    public String fixture;
+
+    @Param({ "100" })
+    public int copies;
+
+    private BPListBuffer in;
+    private int fixtureLength;
+    private long[] positions;
+    private int[] counts;
+    private boolean[] unicode;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] bytes = FileHelper.getBytes(fixture + ".bplist");
+        fixtureLength = bytes.length;
+        byte[] scaled = new byte[bytes.length * copies];
+        for (int copy = 0; copy < copies; copy++) {
+            System.arraycopy(bytes, 0, scaled, copy * bytes.length, bytes.length);
+        }
+        in = new BPListBuffer(ByteBuffer.wrap(scaled));
+
+        // Position and count of every string in the first copy
+        BPListBuffer fixtureIn = new BPListBuffer(ByteBuffer.wrap(bytes));
+        long[] offsets = BPListTrailer.read(fixtureIn).readOffsets(fixtureIn);
+        positions = new long[offsets.length];
+        counts = new int[offsets.length];
+        unicode = new boolean[offsets.length];
+        int strings = 0;
+        for (long offset : offsets) {
+            fixtureIn.seek(offset);
+            int marker = fixtureIn.readUnsignedByte();
+            int type = (marker & 0xf0) >> 4;
+            if ((type == 5) || (type == 6)) {
+                int count = marker & 0xf;
+                if (count == 15) {
+                    count = ElementParser.readCount(fixtureIn);
+                }
+                positions[strings] = fixtureIn.position();
+                counts[strings] = count;
+                unicode[strings++] = type == 6;
+            }
+        }
+        positions = Arrays.copyOf(positions, strings);
+    }
+
+    @Benchmark
+    public void bulk(Blackhole blackhole) throws IOException {
+        for (int copy = 0; copy < copies; copy++) {
+            long base = (long) copy * fixtureLength;
+            for (int i = 0; i < positions.length; i++) {
+                in.seek(base + positions[i]);
+                blackhole.consume(unicode[i] ? in.readUtf16(counts[i]) : in.readAscii(counts[i]));
+            }
+        }
+    }
+
+    @Benchmark
+    public void perCharacter(Blackhole blackhole) throws IOException {
+        for (int copy = 0; copy < copies; copy++) {
+            long base = (long) copy * fixtureLength;
+            for (int i = 0; i < positions.length; i++) {
+                in.seek(base + positions[i]);
+                if (unicode[i]) {
+                    char[] buf = new char[counts[i]];
+                    for (int j = 0; j < buf.length; j++) {
+                        buf[j] = in.readChar();
+                    }
+                    blackhole.consume(new String(buf));
+                } else {
+                    byte[] buf = new byte[counts[i]];
+                    in.readFully(buf);
+                    blackhole.consume(new String(buf, "ASCII"));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package nl.pvanassen.bplist.writer;
+
+import java.io.*;
+import java.util.*;
+
+import nl.pvanassen.bplist.FileHelper;
+import nl.pvanassen.bplist.parser.*;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BPListAppenderTest {
+    private final ElementParser elementParser = new ElementParser();
+
+    private int trackRef(File file, String track) throws IOException {
+        BPListCursor cursor = elementParser.parseDocument(file).cursor();
+        assertTrue(cursor.moveToChild("Tracks"));
+        assertTrue(cursor.moveToChild(track));
+        return cursor.ref();
+    }
+
+    @Test
+    public void testPut() throws IOException {
+        File file = FileHelper.copy("iTunes-small.bplist");
+        try {
+            String xml = FileHelper.toXml(file);
+            long length = file.length();
+            int track = trackRef(file, "194");
+            try (BPListAppender appender = new BPListAppender(file)) {
+                appender.put(track, "Play Count", 99);
+                appender.put(track, "Rating", 80);
+                appender.save();
+            }
+            String rating = "<key>Rating</key><integer>80</integer>";
+            String actual = FileHelper.toXml(file);
+            assertEquals(actual.indexOf(rating), actual.lastIndexOf(rating));
+            assertTrue(actual.indexOf(rating) < actual.indexOf("<key>130</key>"));
+            assertEquals(xml.replaceFirst("<key>Play Count</key><integer>2</integer>", "<key>Play Count</key><integer>99</integer>"), actual.replace(rating, ""));
+            // Two dicts, two integers and a key, plus a new table of two byte offsets
+            assertTrue((file.length() - length) < (400 + (2 * elementParser.parseDocument(file).getObjectCount())));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSaves() throws IOException {
+        File file = FileHelper.copy("iTunes-small.bplist");
+        try {
+            int objectCount = elementParser.parseDocument(file).getObjectCount();
+            int track = trackRef(file, "130");
+            byte[] saved;
+            try (BPListAppender appender = new BPListAppender(file)) {
+                appender.replace(trackRef(file, "194"), "gone");
+                appender.save();
+                String old = FileHelper.toXml(file);
+                assertTrue(old.contains("<key>194</key><string>gone</string>"));
+
+                // The old top level dict is referred to, not appended again
+                Map<String, Object> top = new LinkedHashMap<>();
+                top.put("old", appender.ref(appender.getTopObject()));
+                top.put("list", Arrays.asList("a", "a", 1L));
+                int ref = appender.append(top);
+                appender.setTopObject(ref);
+                appender.save();
+                saved = FileUtils.readFileToByteArray(file);
+                assertEquals(objectCount + 6, appender.getObjectCount());
+                assertEquals(ref, elementParser.parseDocument(file).getTopObjectRef());
+                assertEquals("<dict><key>old</key>" + old + "<key>list</key><array><string>a</string><string>a</string><integer>1</integer></array></dict>", FileHelper.toXml(file));
+
+                // Nothing changed, nothing written
+                appender.save();
+                assertArrayEquals(saved, FileUtils.readFileToByteArray(file));
+
+                // Not saved, so never written
+                appender.replace(ref, "lost");
+                appender.put(track, "Rating", 20);
+                assertArrayEquals(saved, FileUtils.readFileToByteArray(file));
+            }
+            assertArrayEquals(saved, FileUtils.readFileToByteArray(file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testArray() throws IOException {
+        // {"name": "top last", "list": [1, "two"]} with the strings at 0, 1 and 4, the list at 5 and the dict at 6
+        File file = FileHelper.copy("toplast.bplist");
+        try {
+            try (BPListAppender appender = new BPListAppender(file)) {
+                appender.set(5, 0, "one");
+                appender.add(5, appender.ref(1));
+                appender.add(5, Collections.singletonMap("two", appender.ref(4)));
+                // Appended since the last save, changed again
+                appender.set(5, 2, "three");
+                try {
+                    appender.set(5, 4, "five");
+                    fail("Index out of range");
+                } catch (IllegalArgumentException e) {
+                    assertEquals("Index 4 not in array of 4", e.getMessage());
+                }
+                try {
+                    appender.add(6, "no array");
+                    fail("Not an array");
+                } catch (IllegalStateException e) {
+                    assertEquals("Not an array: 6", e.getMessage());
+                }
+                appender.save();
+            }
+            assertEquals("<dict><key>name</key><string>top last</string><key>list</key><array><string>one</string><string>two</string><string>three</string><dict><key>two</key><string>two</string></dict></array></dict>", FileHelper.toXml(file));
+
+            try (BPListAppender appender = new BPListAppender(file)) {
+                int count = appender.getObjectCount();
+                // The top level dict keeps its ref, only its keys are appended
+                Map<String, Object> top = new LinkedHashMap<>();
+                top.put("name", appender.ref(1));
+                top.put("other", appender.ref(5));
+                appender.replace(6, top);
+                assertEquals(count + 2, appender.getObjectCount());
+                appender.save();
+            }
+            assertEquals("<dict><key>other</key><array><string>one</string><string>two</string><string>three</string><dict><key>two</key><string>two</string></dict></array><key>name</key><string>top last</string></dict>", FileHelper.toXml(file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testFull() throws IOException {
+        File file = File.createTempFile("bplist", ".bplist");
+        try {
+            List<String> strings = new ArrayList<>();
+            for (int i = 0; i < 249; i++) {
+                strings.add("s" + i);
+            }
+            new BPListWriter().write(strings, file);
+            try (BPListAppender appender = new BPListAppender(file)) {
+                appender.append(Arrays.asList("a", "b", "c", "d", "e"));
+                assertEquals(256, appender.getObjectCount());
+                try {
+                    appender.append("f");
+                    fail("Object refs of 1 byte are full");
+                } catch (IllegalStateException e) {
+                    assertEquals(256, appender.getObjectCount());
+                }
+                appender.save();
+            }
+            assertEquals(256, elementParser.parseObjectTable(file).size());
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package nl.pvanassen.bplist.writer;
+
+import java.io.*;
+
+import nl.pvanassen.bplist.FileHelper;
+import nl.pvanassen.bplist.parser.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BPListOptimizerTest {
+    private final ElementParser elementParser = new ElementParser();
+    private final BPListOptimizer optimizer = new BPListOptimizer();
+
+    @Test
+    public void testFixtures() throws IOException {
+        for (String baseName : FileHelper.FIXTURES) {
+            File source = FileHelper.copy(baseName + ".bplist");
+            File target = File.createTempFile("bplist", ".bplist");
+            try {
+                long saved = optimizer.optimize(source, target);
+                assertEquals(baseName, source.length() - target.length(), saved);
+                assertTrue(baseName, saved >= 0);
+                assertEquals(baseName, FileHelper.toXml(source), FileHelper.toXml(target));
+                assertEquals(baseName, 0, elementParser.parseDocument(target).getTopObjectRef());
+                // Optimizing again changes nothing
+                assertEquals(baseName, 0, optimizer.optimize(target));
+            } finally {
+                source.delete();
+                target.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testDuplicates() throws IOException {
+        File file = File.createTempFile("bplist", ".bplist");
+        try {
+            try (BPListStreamWriter writer = new BPListStreamWriter(file)) {
+                writer.startArray();
+                for (int i = 0; i < 100; i++) {
+                    writer.startDict();
+                    writer.key("name");
+                    writer.value("same");
+                    writer.key("n");
+                    writer.value(i % 10);
+                    writer.endDict();
+                }
+                writer.endArray();
+            }
+            String xml = FileHelper.toXml(file);
+            assertEquals(303, elementParser.parseDocument(file).getObjectCount());
+            assertTrue(optimizer.optimize(file) > 0);
+            assertEquals(xml, FileHelper.toXml(file));
+            // The array, 10 distinct dicts, 2 keys, the string and 10 integers
+            BPListDocument document = elementParser.parseDocument(file);
+            assertEquals(24, document.getObjectCount());
+            assertEquals(1, document.getObjectRefSize());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testAppended() throws IOException {
+        File file = FileHelper.copy("iTunes-small.bplist");
+        File reference = FileHelper.copy("iTunes-small.bplist");
+        try {
+            try (BPListAppender appender = new BPListAppender(file)) {
+                BPListCursor cursor = elementParser.parseDocument(file).cursor();
+                cursor.moveToChild("Tracks");
+                cursor.moveToChild("194");
+                for (int i = 0; i < 10; i++) {
+                    appender.put(cursor.ref(), "Play Count", i);
+                    appender.save();
+                }
+            }
+            String xml = FileHelper.toXml(file);
+            assertTrue(xml.contains("<key>Play Count</key><integer>9</integer>"));
+            long appended = file.length();
+            long saved = optimizer.optimize(file);
+            assertEquals(appended - file.length(), saved);
+            assertEquals(xml, FileHelper.toXml(file));
+
+            // The replaced dicts and integers are gone, at most the 9 is new
+            optimizer.optimize(reference);
+            assertTrue(elementParser.parseDocument(file).getObjectCount() <= (elementParser.parseDocument(reference).getObjectCount() + 1));
+            assertTrue(file.length() <= (reference.length() + 16));
+        } finally {
+            file.delete();
+            reference.delete();
+        }
+    }
+}
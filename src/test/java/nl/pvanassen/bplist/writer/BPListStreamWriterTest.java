@@ -0,0 +1,166 @@
+package nl.pvanassen.bplist.writer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import nl.pvanassen.bplist.FileHelper;
+import nl.pvanassen.bplist.converter.ConvertToXml;
+import nl.pvanassen.bplist.parser.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BPListStreamWriterTest {
+    private final ConvertToXml convertToXml = new ConvertToXml();
+    private final ElementParser elementParser = new ElementParser();
+
+    private static void stream(BPListElement<?> element, BPListStreamWriter writer) throws IOException {
+        if (element == null) {
+            writer.nullValue();
+            return;
+        }
+        BPListType type = element.getType();
+        if (type.isDict()) {
+            BPLDict dict = (BPLDict) element;
+            writer.startDict();
+            for (int i = 0; i < dict.size(); i++) {
+                writer.key(dict.getKey(i));
+                stream(dict.getValue(i), writer);
+            }
+            writer.endDict();
+        } else if (type.isArray()) {
+            BPLArray array = (BPLArray) element;
+            writer.startArray();
+            for (int i = 0; i < array.size(); i++) {
+                stream(array.get(i), writer);
+            }
+            writer.endArray();
+        } else if (element.getValue() instanceof Float) {
+            writer.value((Float) element.getValue());
+        } else {
+            switch (type) {
+                case BOOLEAN:
+                    writer.value(element.asBoolean());
+                    break;
+                case LONG:
+                    writer.value(element.asLong());
+                    break;
+                case FLOAT:
+                case DOUBLE:
+                    writer.value(element.asDouble());
+                    break;
+                case DATE:
+                    writer.value((Date) element.getValue());
+                    break;
+                case DATA:
+                    writer.value((byte[]) element.getValue());
+                    break;
+                case UID:
+                    writer.uid(element.asUid());
+                    break;
+                default:
+                    writer.value(element.getValue().toString());
+                    break;
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        for (String baseName : FileHelper.FIXTURES) {
+            String expected = FileHelper.getContent(baseName + ".result");
+            byte[] bplist = FileHelper.getBytes(baseName + ".bplist");
+            BPListElement<?> top = elementParser.parseDocument(ByteBuffer.wrap(bplist)).getTopObject();
+            // Tiny blocks, so offsets and refs spill to disk
+            for (int blockSize : new int[] { 4, 1 << 16 }) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try (BPListStreamWriter writer = new BPListStreamWriter(new BPListOutput(out), null, 2, blockSize)) {
+                    stream(top, writer);
+                }
+                byte[] written = out.toByteArray();
+                assertEquals(baseName, expected, convertToXml.convertToXml(elementParser.parseObjectTable(written, 0, written.length)).getChildren().get(0).toString());
+                assertEquals(baseName, expected, convertToXml.convertToXml(elementParser.parseDocument(ByteBuffer.wrap(written))).getChildren().get(0).toString());
+            }
+        }
+    }
+
+    @Test
+    public void testLarge() throws IOException {
+        File file = File.createTempFile("bplist", ".bplist");
+        try {
+            try (BPListStreamWriter writer = new BPListStreamWriter(file, 4, 64)) {
+                writer.startDict();
+                for (int i = 0; i < 20000; i++) {
+                    writer.key("key" + i);
+                    writer.startDict();
+                    writer.key("Track ID");
+                    writer.value(i);
+                    writer.key("Name");
+                    writer.value("Track " + i);
+                    writer.key("Tags");
+                    writer.startArray();
+                    writer.value(true);
+                    writer.nullValue();
+                    writer.endArray();
+                    writer.endDict();
+                }
+                writer.endDict();
+            }
+            BPListDocument document = elementParser.parseDocument(file);
+            BPLDict top = (BPLDict) document.getTopObject();
+            assertEquals(0, document.getTopObjectRef());
+            // Top dict, its keys, six objects per track and the keys repeated in every track written once
+            assertEquals(1 + 20000 + (6 * 20000) + 3, document.getObjectCount());
+            assertEquals(20000, top.size());
+            assertEquals("key12345", top.getKey(12345));
+            BPLDict track = (BPLDict) top.get("key12345");
+            assertEquals(12345, track.getLong("Track ID", -1));
+            assertEquals("Track 12345", track.get("Name").getValue());
+            assertTrue(((BPLArray) track.get("Tags")).getBoolean(0));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testMisuse() throws IOException {
+        BPListStreamWriter writer = new BPListStreamWriter(new ByteArrayOutputStream());
+        writer.startDict();
+        try {
+            writer.value("no key");
+            fail("Value without a key");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        try {
+            writer.endArray();
+            fail("No array open");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        writer.key("key");
+        try {
+            writer.key("second key");
+            fail("Key without a value");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        try {
+            writer.close();
+            fail("Dict still open");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testObjectRefSize() throws IOException {
+        try (BPListStreamWriter writer = new BPListStreamWriter(new ByteArrayOutputStream(), 1)) {
+            writer.startArray();
+            for (int i = 0; i < 300; i++) {
+                writer.value(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package nl.pvanassen.bplist.writer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import nl.pvanassen.bplist.FileHelper;
+import nl.pvanassen.bplist.converter.ConvertToXml;
+import nl.pvanassen.bplist.generator.BPListGenerator;
+import nl.pvanassen.bplist.parser.*;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BPListWriterTest {
+    private final ConvertToXml convertToXml = new ConvertToXml();
+    private final ElementParser elementParser = new ElementParser();
+    private final BPListWriter writer = new BPListWriter();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        for (String baseName : FileHelper.FIXTURES) {
+            String expected = FileHelper.getContent(baseName + ".result");
+            byte[] bplist = FileHelper.getBytes(baseName + ".bplist");
+            byte[] written = writer.toByteArray(elementParser.parseDocument(ByteBuffer.wrap(bplist)).getTopObject());
+            assertEquals(baseName, expected, FileHelper.toXml(written));
+            // Writing what was written gives the same bytes
+            assertArrayEquals(baseName, written, writer.toByteArray(elementParser.parseObjectTable(written, 0, written.length).get(0)));
+        }
+    }
+
+    @Test
+    public void testJavaObjects() throws IOException {
+        Date date = new Date(1400000000000L);
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("string", "value");
+        map.put("unicode", "\u00a9 \u65e5\u672c");
+        map.put("int", 42);
+        map.put("large", 5000000000L);
+        map.put("negative", -7L);
+        map.put("double", 1.5);
+        map.put("float", 2.5f);
+        map.put("true", true);
+        map.put("date", date);
+        map.put("data", new byte[] { 1, 2, 3 });
+        map.put("null", null);
+        map.put("list", Arrays.asList("a", 1, Collections.singletonMap("nested", "b")));
+        map.put("array", new Object[] { "c" });
+
+        byte[] bplist = writer.toByteArray(map);
+        BPLDict dict = (BPLDict) elementParser.parseObjectTable(bplist, 0, bplist.length).get(0);
+        assertEquals(map.size(), dict.size());
+        assertEquals("string", dict.getKey(0));
+        assertEquals("value", dict.get("string").getValue());
+        assertEquals(BPListType.UNICODE_STRING, dict.get("unicode").getType());
+        assertEquals("\u00a9 \u65e5\u672c", dict.get("unicode").getValue());
+        assertEquals(42, dict.getLong("int", 0));
+        assertEquals(5000000000L, dict.getLong("large", 0));
+        assertEquals(-7, dict.getLong("negative", 0));
+        assertEquals(1.5, dict.getDouble("double", 0), 0);
+        assertEquals(2.5f, dict.get("float").getValue());
+        assertTrue(dict.getBoolean("true", false));
+        assertEquals(date, dict.get("date").getValue());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) dict.get("data").getValue());
+        assertNull(dict.get("null"));
+        assertTrue(dict.containsKey("null"));
+        BPLArray list = (BPLArray) dict.get("list");
+        assertEquals("a", list.get(0).getValue());
+        assertEquals(1, list.getLong(1));
+        assertEquals("b", ((BPLDict) list.get(2)).get("nested").getValue());
+        assertEquals("c", ((BPLArray) dict.get("array")).get(0).getValue());
+    }
+
+    @Test
+    public void testUniquing() throws IOException {
+        Map<String, Object> map = new HashMap<>();
+        List<Object> list = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            list.add(Arrays.asList("same", 1, new byte[] { 1 }, new Date(0), true));
+        }
+        map.put("same", list);
+        byte[] bplist = writer.toByteArray(map);
+        // Top dict, the list, 1000 arrays and 5 shared leaves, "same" once
+        BPListDocument document = elementParser.parseDocument(ByteBuffer.wrap(bplist));
+        assertEquals(1007, document.getObjectCount());
+        assertEquals(2, objectRefSize(bplist));
+        assertEquals(2, offsetIntSize(bplist));
+        BPLArray first = (BPLArray) ((BPLArray) ((BPLDict) document.getTopObject()).get("same")).get(0);
+        assertEquals("same", first.get(0).getValue());
+
+        byte[] small = writer.toByteArray(Arrays.asList(1, 2, 3));
+        assertEquals(1, objectRefSize(small));
+        assertEquals(1, offsetIntSize(small));
+        assertEquals(4, elementParser.parseDocument(ByteBuffer.wrap(small)).getObjectCount());
+
+        List<Object> wide = new ArrayList<>();
+        for (int i = 0; i < 70000; i++) {
+            wide.add(i);
+        }
+        byte[] large = writer.toByteArray(wide);
+        // Widths of 3 bytes are rounded up
+        assertEquals(4, objectRefSize(large));
+        assertEquals(4, offsetIntSize(large));
+        BPLArray array = (BPLArray) elementParser.parseObjectTable(large, 0, large.length).get(0);
+        assertEquals(69999, array.getLong(69999));
+    }
+
+    @Test
+    public void testDate() throws IOException {
+        // 2014-05-13T16:53:20Z, 421692800 seconds after 2001-01-01T00:00:00Z
+        byte[] bplist = writer.toByteArray(Collections.singletonList(new Date(1400000000000L)));
+        // Header, the array with one ref, then the date marker and its double
+        assertEquals(0x33, bplist[10]);
+        assertEquals(Double.doubleToLongBits(421692800.0), ByteBuffer.wrap(bplist, 11, 8).getLong());
+    }
+
+    @Test
+    public void testUid() throws IOException {
+        int[] uids = { 0, 0x7f, 0x80, 0x7fff, 0x8000, 0x12345, 0xffffff, 0x1000000, Integer.MAX_VALUE, -1 };
+        int[] sizes = { 1, 1, 2, 2, 4, 4, 4, 4, 4, 4 };
+        for (int i = 0; i < uids.length; i++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            BPListOutput out = new BPListOutput(bytes);
+            out.writeUid(uids[i]);
+            out.flush();
+            byte[] written = bytes.toByteArray();
+            assertEquals(0x80 | (sizes[i] - 1), written[0] & 0xff);
+            assertEquals(sizes[i] + 1, written.length);
+        }
+        // A uid that takes three bytes is written in four and reads back the same
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BPListStreamWriter streamWriter = new BPListStreamWriter(bytes)) {
+            streamWriter.startArray();
+            streamWriter.uid(0x12345);
+            streamWriter.endArray();
+        }
+        byte[] bplist = bytes.toByteArray();
+        assertEquals(0x12345, ((BPLArray) elementParser.parseObjectTable(bplist, 0, bplist.length).get(0)).getUid(0));
+    }
+
+    @Test
+    public void testFile() throws IOException {
+        File file = File.createTempFile("bplist", ".bplist");
+        try {
+            byte[] bplist = FileHelper.getBytes("iTunes-small.bplist");
+            writer.write(elementParser.parseObjectTable(bplist, 0, bplist.length).get(0), file);
+            assertEquals(FileHelper.getContent("iTunes-small.result"), convertToXml.convertToXml(elementParser.parseObjectTable(file)).getChildren().get(0).toString());
+            assertArrayEquals(IOUtils.toByteArray(new FileInputStream(file)), writer.toByteArray(elementParser.parseDocument(file).getTopObject()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testParallel() throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // A threshold of 2 splits even the small fixtures
+            for (BPListWriter parallel : new BPListWriter[] { new BPListWriter(2), new BPListWriter() }) {
+                for (String baseName : FileHelper.FIXTURES) {
+                    byte[] bplist = FileHelper.getBytes(baseName + ".bplist");
+                    BPListElement<?> top = elementParser.parseDocument(ByteBuffer.wrap(bplist)).getTopObject();
+                    byte[] written = parallel.toByteArray(top, pool);
+                    assertEquals(baseName, FileHelper.getContent(baseName + ".result"), FileHelper.toXml(written));
+                    assertEquals(baseName, objectCount(writer.toByteArray(top)), objectCount(written));
+                }
+            }
+
+            byte[] generated = new BPListGenerator(7).objectCount(50000).depth(5).fanIn(0.3).generate();
+            BPListElement<?> top = elementParser.parseObjectTable(generated, 0, generated.length).get(0);
+            byte[] sequential = writer.toByteArray(top);
+            byte[] written = writer.toByteArray(top, pool);
+            assertEquals(FileHelper.toXml(sequential), FileHelper.toXml(written));
+            assertEquals(objectCount(sequential), objectCount(written));
+
+            List<Object> tracks = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                Map<String, Object> track = new HashMap<>();
+                track.put("Track ID", i);
+                track.put("Kind", "MPEG audio file");
+                tracks.add(track);
+            }
+            written = new BPListWriter(16).toByteArray(tracks, pool);
+            BPLArray array = (BPLArray) elementParser.parseObjectTable(written, 0, written.length).get(0);
+            assertEquals(999, ((BPLDict) array.get(999)).getLong("Track ID", -1));
+            // The array, 1000 dicts, 1000 ids and the strings shared by all chunks
+            assertEquals(2004, objectCount(written));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParallelUnsupported() throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            new BPListWriter(2).toByteArray(Arrays.asList("a", "b", new Object()), pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupported() throws IOException {
+        writer.toByteArray(Collections.singletonMap("key", new Object()));
+    }
+
+    private int objectCount(byte[] bplist) throws IOException {
+        return elementParser.parseDocument(ByteBuffer.wrap(bplist)).getObjectCount();
+    }
+
+    private static int offsetIntSize(byte[] bplist) {
+        return bplist[bplist.length - 26];
+    }
+
+    private static int objectRefSize(byte[] bplist) {
+        return bplist[bplist.length - 25];
+    }
+}
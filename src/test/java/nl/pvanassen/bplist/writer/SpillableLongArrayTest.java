@@ -0,0 +1,62 @@
+package nl.pvanassen.bplist.writer;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SpillableLongArrayTest {
+
+    /**
+     * Random adds, truncates and reads on tiny blocks, checked against a list
+     */
+    @Test
+    public void testAgainstList() throws IOException {
+        Random random = new Random(1);
+        List<Long> expected = new ArrayList<>();
+        try (SpillableLongArray array = new SpillableLongArray(4)) {
+            for (int step = 0; step < 100000; step++) {
+                int operation = random.nextInt(10);
+                if (operation < 6) {
+                    long value = random.nextLong();
+                    array.add(value);
+                    expected.add(value);
+                } else if ((operation < 8) && !expected.isEmpty()) {
+                    int size = random.nextInt(expected.size());
+                    array.truncate(size);
+                    expected.subList(size, expected.size()).clear();
+                } else if (!expected.isEmpty()) {
+                    int index = random.nextInt(expected.size());
+                    assertEquals("Step " + step, expected.get(index).longValue(), array.get(index));
+                }
+                assertEquals(expected.size(), array.size());
+            }
+        }
+    }
+
+    @Test
+    public void testBounds() throws IOException {
+        try (SpillableLongArray array = new SpillableLongArray(4)) {
+            for (long value = 0; value < 10; value++) {
+                array.add(value);
+            }
+            for (long index : new long[] { -1, 10, Integer.MAX_VALUE + 5L }) {
+                try {
+                    array.get(index);
+                    fail("Index " + index);
+                } catch (IOException e) {
+                    assertEquals("get: index " + index + " not in array of 10", e.getMessage());
+                }
+            }
+            try {
+                array.truncate(11);
+                fail("Truncate to a larger size");
+            } catch (IOException e) {
+                assertEquals(10, array.size());
+            }
+            array.truncate(3);
+            assertEquals(2, array.get(2));
+        }
+    }
+}